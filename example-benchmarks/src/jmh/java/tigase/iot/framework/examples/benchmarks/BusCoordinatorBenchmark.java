@@ -0,0 +1,85 @@
+/*
+ * BusCoordinatorBenchmark.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tigase.iot.framework.examples.java.BusCoordinator;
+import tigase.iot.framework.examples.java.SimulatedBus;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Compares time needed to read all sensors connected to the simulated bus when each sensor opens its own session
+// with reads batched by the BusCoordinator in a single session.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BusCoordinatorBenchmark {
+
+	private static final long PERIOD = 1000;
+
+	@Param({"1", "8", "32"})
+	public int sensors;
+
+	private SimulatedBus bus;
+	private BusCoordinator coordinator;
+	private byte[] data = new byte[2];
+	private long now;
+
+	@Setup
+	public void setup() {
+		bus = new SimulatedBus(200, 100);
+		coordinator = new BusCoordinator("benchmark", bus, PERIOD);
+		for (int i = 0; i < sensors; i++) {
+			coordinator.register(0x20 + i, 0, 2, PERIOD);
+		}
+		// benchmark moves time forward, so reads are not executed by the thread of the coordinator
+		now = System.currentTimeMillis() + PERIOD;
+	}
+
+	@Benchmark
+	public int coordinated() {
+		// all registered reads are due
+		now += PERIOD;
+		return coordinator.poll(now);
+	}
+
+	@Benchmark
+	public int independent() throws IOException {
+		int read = 0;
+		for (int i = 0; i < sensors; i++) {
+			bus.open();
+			try {
+				read += bus.read(0x20 + i, 0, data, 0, data.length);
+			} finally {
+				bus.close();
+			}
+		}
+		return read;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * DecodeBenchmark.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import tigase.iot.framework.examples.common.ValueType;
+import tigase.iot.framework.examples.python.LineReader;
+import tigase.iot.framework.examples.python.ValueDecoder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+// Measures throughput of reading and parsing lines of the script output as done by ExampleSensor, using LineReader
+// with ValueDecoder and using BufferedReader with String based parsing.
+//
+// Results are reported per sample, so `gc.alloc.rate.norm` reported by the gc profiler is a number of bytes
+// allocated for each sample.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.SECONDS)
+@OperationsPerInvocation(DecodeBenchmark.SAMPLES)
+public class DecodeBenchmark {
+
+	public static final int SAMPLES = 1000;
+
+	@Param({"plain", "key-value", "json"})
+	public String format;
+
+	private byte[] data;
+	private ValueDecoder decoder;
+
+	@Setup
+	public void setup() {
+		decoder = ValueDecoder.create(format, "temperature", ValueType.TEMPERATURE);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < SAMPLES; i++) {
+			double value = 20 + (i % 100) / 10.0;
+			switch (format) {
+				case "plain":
+					sb.append(value);
+					break;
+				case "key-value":
+					sb.append("humidity=40.5 temperature=").append(value);
+					break;
+				case "json":
+					sb.append("{\"humidity\":40.5,\"temperature\":").append(value).append('}');
+					break;
+			}
+			sb.append('\n');
+		}
+		data = sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public void lineReader(Blackhole blackhole) throws IOException {
+		new LineReader(new ByteArrayInputStream(data)).readLines(
+				(buf, off, len) -> blackhole.consume(decoder.decode(buf, off, len)));
+	}
+
+	@Benchmark
+	public void bufferedReader(Blackhole blackhole) throws IOException {
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				blackhole.consume(ValueType.TEMPERATURE.create(Double.parseDouble(extract(line))));
+			}
+		}
+	}
+
+	private String extract(String line) {
+		switch (format) {
+			case "key-value":
+				for (String pair : line.split(" ")) {
+					String[] parts = pair.split("=");
+					if (parts[0].equals("temperature")) {
+						return parts[1];
+					}
+				}
+				return null;
+			case "json":
+				int start = line.indexOf("\"temperature\":") + "\"temperature\":".length();
+				int end = line.indexOf(',', start);
+				return line.substring(start, end < 0 ? line.indexOf('}', start) : end);
+			default:
+				return line;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * ReadValueBenchmark.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import tigase.iot.framework.examples.python.ExamplePeriodSensor;
+import tigase.iot.framework.values.Temperature;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Measures latency of ExamplePeriodSensor.readValue(), from execution of the script to the value which would be passed
+// to updateValue(), when new process is spawned for each read and when persistent worker is used.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadValueBenchmark {
+
+	@Param({"spawn", "worker"})
+	public String mode;
+	@Param({"text", "plain"})
+	public String format;
+
+	private StubScripts scripts;
+	private Sensor sensor;
+
+	@Setup
+	public void setup() throws IOException {
+		scripts = StubScripts.create();
+		sensor = new Sensor();
+		StubScripts.setConfigField(sensor, "interpreter", StubScripts.INTERPRETER);
+		StubScripts.setConfigField(sensor, "script", scripts.getReadScript());
+		sensor.setMode(mode);
+		sensor.setFormat(format);
+		sensor.setValueType("temperature");
+	}
+
+	@TearDown
+	public void tearDown() {
+		// switching to spawn mode releases the worker
+		sensor.setMode("spawn");
+		scripts.delete();
+	}
+
+	@Benchmark
+	public Temperature readValue() {
+		return sensor.sample();
+	}
+
+	public static class Sensor
+			extends ExamplePeriodSensor<Temperature> {
+
+		public Temperature sample() {
+			return readValue();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * SampleBufferBenchmark.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tigase.iot.framework.examples.common.ValueType;
+import tigase.iot.framework.examples.python.SampleBuffer;
+import tigase.iot.framework.values.Temperature;
+
+import java.util.concurrent.TimeUnit;
+
+// Measures throughput of passing samples from the thread reading output of the python script to the publisher thread
+// in streaming modes of ExampleSensor.
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SampleBufferBenchmark {
+
+	@Param({"LATEST", "DROP_OLDEST"})
+	public SampleBuffer.Policy policy;
+
+	private SampleBuffer<Temperature> buffer;
+	private Temperature sample;
+
+	@Setup
+	public void setup() {
+		buffer = new SampleBuffer<>(policy, 64);
+		sample = (Temperature) ValueType.TEMPERATURE.create(21.5);
+	}
+
+	@Benchmark
+	@Group("buffer")
+	@GroupThreads(1)
+	public void offer() {
+		buffer.offer(sample);
+	}
+
+	@Benchmark
+	@Group("buffer")
+	@GroupThreads(1)
+	public Temperature poll() {
+		return buffer.poll();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * StubScripts.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+// Fake scripts used instead of python scripts, so benchmarks may be executed without python and any hardware.
+//
+// Scripts are executed by `sh` and implement the same protocol as `tigase_iot_worker.py` helper, always returning
+// the same value.
+//
+// Benchmarks of python specific features use python script importing modules from the standard library in place of
+// driver libraries (ie. smbus or numpy). Python interpreter may be set using `tigase.iot.examples.benchmarks.python`
+// system property (default python3).
+public class StubScripts {
+
+	public static final String INTERPRETER = "sh";
+	public static final String PYTHON_INTERPRETER = System.getProperty("tigase.iot.examples.benchmarks.python",
+																	   "python3");
+	public static final String PYTHON_MODULES = "json,decimal,xml.dom.minidom,email.mime.multipart,http.client";
+
+	private static final String READ_SCRIPT = "if [ \"$1\" = \"--worker\" ]; then\n" +
+			"  while read -r line; do echo 21.5; echo; done\n" + "else\n" + "  echo 21.5\n" + "fi\n";
+
+	private final File dir;
+	private final File pythonReadScript;
+	private final File readScript;
+
+	public static StubScripts create() throws IOException {
+		return new StubScripts(Files.createTempDirectory("iot-benchmarks").toFile());
+	}
+
+	// Sets value of the configuration field of the driver in the same way as it is done by the kernel when there is
+	// no setter for the field.
+	public static void setConfigField(Object driver, String name, Object value) {
+		for (Class<?> cls = driver.getClass(); cls != null; cls = cls.getSuperclass()) {
+			try {
+				Field field = cls.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(driver, value);
+				return;
+			} catch (NoSuchFieldException ex) {
+				// field may be declared in the superclass
+			} catch (IllegalAccessException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+		throw new IllegalArgumentException("No field " + name + " in " + driver.getClass());
+	}
+
+	private StubScripts(File dir) throws IOException {
+		this.dir = dir;
+		this.readScript = write("read.sh", READ_SCRIPT);
+		this.pythonReadScript = write("read.py", "import " + PYTHON_MODULES.replace(",", ", ") + "\nprint(21.5)\n");
+	}
+
+	public String getReadScript() {
+		return readScript.getAbsolutePath();
+	}
+
+	public String getPythonReadScript() {
+		return pythonReadScript.getAbsolutePath();
+	}
+
+	public void delete() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * ZygoteBenchmark.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import tigase.iot.framework.values.Temperature;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Measures latency of ExamplePeriodSensor.readValue() executing python script importing a few modules, when new
+// python process is spawned for each read and when it is forked by ZygoteServer with the modules preloaded.
+//
+// Unlike other benchmarks it requires python interpreter (see StubScripts).
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ZygoteBenchmark {
+
+	@Param({"spawn", "fork"})
+	public String mode;
+
+	private StubScripts scripts;
+	private ReadValueBenchmark.Sensor sensor;
+
+	@Setup
+	public void setup() throws IOException {
+		scripts = StubScripts.create();
+		sensor = new ReadValueBenchmark.Sensor();
+		StubScripts.setConfigField(sensor, "interpreter", StubScripts.PYTHON_INTERPRETER);
+		StubScripts.setConfigField(sensor, "script", scripts.getPythonReadScript());
+		sensor.setPreload(StubScripts.PYTHON_MODULES);
+		sensor.setMode(mode);
+		sensor.setFormat("plain");
+		sensor.setValueType("temperature");
+	}
+
+	@TearDown
+	public void tearDown() {
+		// switching to spawn mode releases the zygote
+		sensor.setMode("spawn");
+		scripts.delete();
+	}
+
+	@Benchmark
+	public Temperature readValue() {
+		return sensor.sample();
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * AdaptivePeriod.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+// Adaptive sampling period with a deadband.
+//
+// Sensor is polled with its base (minimal) period, but reads are executed only when current period has elapsed since
+// the last read. While read values stay within the deadband from the last published value, current period is
+// increased (up to the maximal period) and values are not published. When value moves outside of the deadband it is
+// published and current period drops back to the minimal period.
+public class AdaptivePeriod {
+
+	private static final double BACKOFF = 1.5;
+
+	private final double deadband;
+	private final long maxPeriod;
+	private final long minPeriod;
+	private long currentPeriod;
+	private double lastPublished = Double.NaN;
+	private long lastRead = Long.MIN_VALUE;
+	private long reads = 0;
+	private long suppressed = 0;
+
+	public AdaptivePeriod(long minPeriod, long maxPeriod, double deadband) {
+		this.minPeriod = minPeriod;
+		this.maxPeriod = Math.max(minPeriod, maxPeriod);
+		this.deadband = deadband;
+		this.currentPeriod = minPeriod;
+	}
+
+	public synchronized long getCurrentPeriod() {
+		return currentPeriod;
+	}
+
+	public synchronized long getReads() {
+		return reads;
+	}
+
+	// Number of read values which were not published as they were within the deadband.
+	public synchronized long getSuppressed() {
+		return suppressed;
+	}
+
+	// Checks if read should be executed now. Half of the minimal period is allowed as a tolerance of the timer.
+	public synchronized boolean isDue(long now) {
+		return lastRead == Long.MIN_VALUE || now - lastRead >= currentPeriod - minPeriod / 2;
+	}
+
+	// Records read value and returns true if it should be published.
+	public synchronized boolean update(long now, double value) {
+		lastRead = now;
+		reads++;
+		if (Double.isNaN(lastPublished) || Math.abs(value - lastPublished) > deadband) {
+			lastPublished = value;
+			currentPeriod = minPeriod;
+			return true;
+		}
+		suppressed++;
+		currentPeriod = Math.min(maxPeriod, (long) (currentPeriod * BACKOFF));
+		return false;
+	}
+}
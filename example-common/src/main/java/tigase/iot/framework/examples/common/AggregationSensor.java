@@ -0,0 +1,234 @@
+/*
+ * AggregationSensor.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import tigase.iot.framework.devices.AbstractSensor;
+import tigase.iot.framework.devices.IConfigurationAware;
+import tigase.iot.framework.devices.IValue;
+import tigase.kernel.beans.config.ConfigField;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// Virtual sensor publishing statistics of values of other example drivers aggregated in time windows, so only the
+// aggregates (ie. per-minute average or p95) are published instead of every sample read by those drivers.
+//
+// Values of the drivers with the configured bean names (as registered in JMX, see DriverMetrics) are received from
+// UpdatePublisher as they are passed by the drivers and aggregated in a SampleWindow. If `slide` is 0, windows are
+// tumbling and statistic of all values received within `window` milliseconds is published at the end of the window.
+// Otherwise statistic of values received within last `window` milliseconds (rounded up to a multiple of `slide`) is
+// published every `slide` milliseconds. Windows are closed on ticks of PollScheduler, so they are aligned to multiples
+// of their period. Nothing is published for windows without values.
+//
+// Average, minimum, maximum and count are calculated from all received values. Percentiles are calculated from up to
+// `maxSamples` values sampled uniformly from the window.
+//
+// If `rawValues` is set to "local", values of the aggregated drivers are used only by this sensor and are not
+// published by the drivers.
+public class AggregationSensor<T extends IValue>
+		extends AbstractSensor<T>
+		implements IConfigurationAware {
+
+	@ConfigField(desc = "Maximal number of values sampled in the window to calculate percentiles")
+	private Integer maxSamples = 4096;
+	@ConfigField(desc = "Bean name")
+	private String name;
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+	@ConfigField(desc = "Values of aggregated drivers are published (forward) or used only by this sensor (local)")
+	private String rawValues = "forward";
+	@ConfigField(desc = "Period in milliseconds in which sliding window is published (0 - tumbling windows)")
+	private Long slide = 0L;
+	@ConfigField(desc = "Comma separated bean names of drivers which values are aggregated")
+	private String sources = "";
+	@ConfigField(desc = "Published statistic: avg, min, max, count or percentile, ie. p95")
+	private String statistic = "avg";
+	@ConfigField(desc = "Type of the published value (humidity, light, movement, pressure or temperature)")
+	private String valueType = "temperature";
+	@ConfigField(desc = "Length of the window in milliseconds")
+	private Long window = 60 * 1000L;
+
+	private final UpdatePublisher.Listener listener = this::received;
+	// Drivers which values were received with result of the check if they are aggregated, valid until metrics of
+	// another driver are registered (driver may publish values before its metrics are registered).
+	private final Map<Object, Boolean> matched = Collections.synchronizedMap(new WeakHashMap<>());
+	private volatile long matchedRegistrations = -1;
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
+	private boolean initialized = false;
+	private volatile Set<String> names = Collections.emptySet();
+	private volatile SampleWindow samples = createWindow();
+	private PollScheduler.Task task = null;
+
+	public AggregationSensor() {
+		// Type and name should match the configured value type, the same way as in other example sensors.
+		super(null, null, "Aggregation");
+	}
+
+	public void setMaxSamples(Integer maxSamples) {
+		this.maxSamples = maxSamples;
+		this.samples = createWindow();
+	}
+
+	public void setRawValues(String rawValues) {
+		if (!"forward".equals(rawValues) && !"local".equals(rawValues)) {
+			throw new IllegalArgumentException("Unsupported handling of raw values: " + rawValues);
+		}
+		this.rawValues = rawValues;
+	}
+
+	public void setSlide(Long slide) {
+		this.slide = slide;
+		this.samples = createWindow();
+		updateScheduling();
+	}
+
+	public void setSources(String sources) {
+		Set<String> names = new HashSet<>();
+		for (String name : sources.split(",")) {
+			if (!name.trim().isEmpty()) {
+				names.add(name.trim());
+			}
+		}
+		this.names = names;
+		this.sources = sources;
+		matched.clear();
+	}
+
+	public void setStatistic(String statistic) {
+		SampleWindow.validate(statistic);
+		this.statistic = statistic;
+	}
+
+	public void setValueType(String valueType) {
+		ValueType.parse(valueType);
+		this.valueType = valueType;
+	}
+
+	public void setWindow(Long window) {
+		this.window = window;
+		this.samples = createWindow();
+		updateScheduling();
+	}
+
+	@Override
+	public void initialize() {
+		super.initialize();
+		metrics.register(name);
+		UpdatePublisher.getInstance().addListener(listener);
+		synchronized (this) {
+			initialized = true;
+		}
+		updateScheduling();
+	}
+
+	@Override
+	public void beforeUnregister() {
+		synchronized (this) {
+			initialized = false;
+		}
+		updateScheduling();
+		UpdatePublisher.getInstance().removeListener(listener);
+		metrics.unregister();
+		super.beforeUnregister();
+	}
+
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
+	public SampleWindow getSamples() {
+		return samples;
+	}
+
+	// Called by UpdatePublisher for values of all drivers.
+	private boolean received(Object source, IValue value) {
+		if (source == this || !isAggregated(source)) {
+			return false;
+		}
+		metrics.received();
+		samples.add(ValueType.toDouble(value));
+		return "local".equals(rawValues);
+	}
+
+	private boolean isAggregated(Object source) {
+		long registrations = DriverMetrics.getRegistrations();
+		if (registrations != matchedRegistrations) {
+			matched.clear();
+			matchedRegistrations = registrations;
+		}
+		Boolean result = matched.get(source);
+		if (result == null) {
+			result = false;
+			for (DriverMetrics driverMetrics : DriverMetrics.getAll()) {
+				if (driverMetrics.getDriver() == source) {
+					result = names.contains(driverMetrics.getName());
+					break;
+				}
+			}
+			matched.put(source, result);
+		}
+		return result;
+	}
+
+	// Executed on ticks of PollScheduler at the end of each window.
+	@SuppressWarnings("unchecked")
+	private void closeWindow() {
+		SampleWindow samples = this.samples;
+		double value;
+		synchronized (samples) {
+			value = samples.get(statistic);
+			samples.next();
+		}
+		if (!Double.isNaN(value)) {
+			publish((T) ValueType.parse(valueType).create(value));
+		}
+	}
+
+	// Sliding window is divided into panes of `slide` milliseconds, tumbling window is a single pane.
+	private SampleWindow createWindow() {
+		int panes = slide > 0 && window > slide ? (int) ((window + slide - 1) / slide) : 1;
+		return new SampleWindow(panes, maxSamples);
+	}
+
+	private synchronized void updateScheduling() {
+		if (task != null) {
+			task.cancel();
+			task = null;
+		}
+		long period = slide > 0 ? slide : window;
+		if (initialized && period > 0) {
+			task = PollScheduler.getInstance()
+					.schedule("aggregation@" + System.identityHashCode(this), "aggregation", period, 0,
+							  this::closeWindow);
+		}
+	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * CircuitBreaker.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+// Circuit breaker stopping calls to a failing resource (ie. hung script or device).
+//
+// After `threshold` consecutive failures breaker is opened and calls are rejected for `openTime` milliseconds. Then
+// a single call is allowed (half-open state) - if it succeeds breaker is closed, otherwise it is opened again.
+// Threshold of 0 or less disables the breaker.
+public class CircuitBreaker {
+
+	private final long openTime;
+	private final int threshold;
+	private int failures = 0;
+	private long openedAt = 0;
+	private long opened = 0;
+	private long rejected = 0;
+	private State state = State.CLOSED;
+
+	public CircuitBreaker(int threshold, long openTime) {
+		this.threshold = threshold;
+		this.openTime = openTime;
+	}
+
+	// Returns true if call may be executed.
+	public synchronized boolean allowRequest() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (System.currentTimeMillis() - openedAt >= openTime) {
+					state = State.HALF_OPEN;
+					return true;
+				}
+				rejected++;
+				return false;
+			default:
+				// trial call is in progress
+				rejected++;
+				return false;
+		}
+	}
+
+	public synchronized void success() {
+		failures = 0;
+		state = State.CLOSED;
+	}
+
+	public synchronized void failure() {
+		failures++;
+		if (threshold > 0 && (state == State.HALF_OPEN || failures >= threshold)) {
+			if (state != State.OPEN) {
+				opened++;
+			}
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	// Returns number of times breaker was opened.
+	public synchronized long getOpened() {
+		return opened;
+	}
+
+	// Returns number of rejected calls.
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+}
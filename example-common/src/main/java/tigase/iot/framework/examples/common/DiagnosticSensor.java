@@ -0,0 +1,75 @@
+/*
+ * DiagnosticSensor.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import tigase.iot.framework.devices.AbstractPeriodSensor;
+import tigase.iot.framework.devices.IConfigurationAware;
+import tigase.iot.framework.devices.IValue;
+import tigase.kernel.beans.config.ConfigField;
+
+// Virtual sensor publishing one of the metrics of example drivers (see DriverMetrics), so slow or failing drivers may
+// be observed from the hub like any other sensor.
+//
+// Metric is read from the driver with the configured name (bean name of the driver, as registered in JMX) or, if name
+// is `*`, the highest value of the metric among all drivers is published. Value is published as an instance of the
+// configured value type.
+public class DiagnosticSensor<T extends IValue>
+		extends AbstractPeriodSensor<T>
+		implements IConfigurationAware {
+
+	@ConfigField(desc = "Bean name of the driver which metric should be published (* - highest value among all drivers)")
+	private String driver = "*";
+	@ConfigField(desc = "Published metric, ie. read-latency-p99, command-latency-max, errors, restarts or receive-rate")
+	private String metric = "read-latency-p99";
+	@ConfigField(desc = "Type of the published value (humidity, light, movement, pressure or temperature)")
+	private String valueType = "light";
+
+	public DiagnosticSensor() {
+		// Type and name should match the configured value type, the same way as in other example sensors.
+		super(null, null, "Driver metrics", 60 * 1000);
+	}
+
+	public void setValueType(String valueType) {
+		ValueType.parse(valueType);
+		this.valueType = valueType;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected T readValue() {
+		Double value = null;
+		if ("*".equals(driver)) {
+			for (DriverMetrics metrics : DriverMetrics.getAll()) {
+				double v = metrics.getMetric(metric);
+				value = value == null ? v : Math.max(value, v);
+			}
+		} else {
+			DriverMetrics metrics = DriverMetrics.get(driver);
+			if (metrics != null) {
+				value = metrics.getMetric(metric);
+			}
+		}
+		if (value == null) {
+			return null;
+		}
+		return (T) ValueType.parse(valueType).create(value);
+	}
+}
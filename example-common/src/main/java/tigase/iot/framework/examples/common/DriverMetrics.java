@@ -0,0 +1,420 @@
+/*
+ * DriverMetrics.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Metrics of a single example driver: latencies of reads and commands, number of started processes and their exit
+// codes, errors and number of lines (or events) received from streaming sources.
+//
+// Metrics of each driver are created with the driver, registered when driver is initialized and unregistered when
+// it is removed. Metrics are registered using name of the bean of the driver, so it is the same after each restart,
+// and are available over JMX as `tigase.iot.examples:type=DriverMetrics,name=<name>` and may be published as values
+// of a sensor by DiagnosticSensor.
+public class DriverMetrics
+		implements DriverMetricsMXBean {
+
+	private static final Logger log = Logger.getLogger(DriverMetrics.class.getCanonicalName());
+
+	private static final Map<String, DriverMetrics> registered = new ConcurrentHashMap<>();
+	private static final AtomicLong registrations = new AtomicLong();
+	private static final AtomicInteger sequence = new AtomicInteger();
+
+	private final LatencyHistogram commandLatency = new LatencyHistogram();
+	private final AtomicLong avoidedWrites = new AtomicLong();
+	private final AtomicLong commandErrors = new AtomicLong();
+	private final Object driver;
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong nonZeroExits = new AtomicLong();
+	private final LatencyHistogram readLatency = new LatencyHistogram();
+	private final AtomicLong readErrors = new AtomicLong();
+	private final Rate received = new Rate();
+	private final AtomicLong restarts = new AtomicLong();
+	private final AtomicLong spawns = new AtomicLong();
+	private final AtomicLong staleReads = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private volatile LongSupplier externalRestarts = null;
+	private volatile String name;
+	private volatile long startupTime = 0;
+	private volatile long startupWait = 0;
+
+	// Returns metrics of the driver with the given name or null if there is no such driver.
+	public static DriverMetrics get(String name) {
+		return registered.get(name);
+	}
+
+	public static List<DriverMetrics> getAll() {
+		return new ArrayList<>(registered.values());
+	}
+
+	// Returns number of registrations of metrics, so users of the registry may detect that new drivers were registered.
+	public static long getRegistrations() {
+		return registrations.get();
+	}
+
+	// Creates metrics named after the class of the driver, ie. ExampleSensor-1, used if driver is registered without
+	// a bean name.
+	public DriverMetrics(Object driver) {
+		this(driver.getClass().getSimpleName() + "-" + sequence.incrementAndGet(), driver);
+	}
+
+	public DriverMetrics(String name) {
+		this(name, null);
+	}
+
+	private DriverMetrics(String name, Object driver) {
+		this.name = name;
+		this.driver = driver;
+	}
+
+	// Registers metrics using the bean name of the driver, if it is known.
+	public synchronized void register(String beanName) {
+		if (beanName != null && !beanName.equals(name)) {
+			unregister();
+			name = beanName;
+		}
+		register();
+	}
+
+	public synchronized void register() {
+		if (registered.putIfAbsent(name, this) != null) {
+			return;
+		}
+		registrations.incrementAndGet();
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, getObjectName());
+		} catch (JMException ex) {
+			log.log(Level.WARNING, "Could not register metrics of " + name + " in JMX", ex);
+		}
+		log.log(Level.CONFIG, "Registered metrics of driver " + name);
+	}
+
+	public synchronized void unregister() {
+		if (!registered.remove(name, this)) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName());
+		} catch (JMException ex) {
+			log.log(Level.FINE, "Could not unregister metrics of " + name + " from JMX", ex);
+		}
+	}
+
+	public void readCompleted(long start, boolean success) {
+		readLatency.recordSince(start);
+		if (!success) {
+			readErrors.incrementAndGet();
+		}
+	}
+
+	public void commandCompleted(long start, boolean success) {
+		commandLatency.recordSince(start);
+		if (!success) {
+			commandErrors.incrementAndGet();
+		}
+	}
+
+	// Called when command was skipped as it would not change state of the device.
+	public void writeAvoided() {
+		avoidedWrites.incrementAndGet();
+	}
+
+	public void processSpawned() {
+		spawns.incrementAndGet();
+	}
+
+	public void processRestarted() {
+		restarts.incrementAndGet();
+	}
+
+	public void processExited(int exitCode) {
+		if (exitCode != 0) {
+			nonZeroExits.incrementAndGet();
+		}
+	}
+
+	// Sets source of restarts of processes not owned by the driver, ie. restarts of a shared PythonWorker.
+	public void setExternalRestarts(LongSupplier externalRestarts) {
+		this.externalRestarts = externalRestarts;
+	}
+
+	public void received() {
+		received.mark();
+	}
+
+	public void error() {
+		errors.incrementAndGet();
+	}
+
+	// Called when script or device did not respond in time.
+	public void timeout() {
+		timeouts.incrementAndGet();
+	}
+
+	// Called when last known value was returned instead of reading the sensor.
+	public void staleRead() {
+		staleReads.incrementAndGet();
+	}
+
+	// Called when activation of the driver (see DriverStartup) was completed, times are in nanoseconds.
+	public void startupCompleted(long wait, long duration) {
+		startupWait = wait;
+		startupTime = duration;
+	}
+
+	// Returns value of the metric using names in the form used in the configuration, ie. `read-latency-p99`.
+	public double getMetric(String metric) {
+		switch (metric) {
+			case "reads":
+				return getReads();
+			case "read-errors":
+				return getReadErrors();
+			case "read-latency-mean":
+				return getReadLatencyMean();
+			case "read-latency-p50":
+				return getReadLatencyP50();
+			case "read-latency-p99":
+				return getReadLatencyP99();
+			case "read-latency-max":
+				return getReadLatencyMax();
+			case "commands":
+				return getCommands();
+			case "command-errors":
+				return getCommandErrors();
+			case "command-latency-mean":
+				return getCommandLatencyMean();
+			case "command-latency-p50":
+				return getCommandLatencyP50();
+			case "command-latency-p99":
+				return getCommandLatencyP99();
+			case "command-latency-max":
+				return getCommandLatencyMax();
+			case "avoided-writes":
+				return getAvoidedWrites();
+			case "spawns":
+				return getSpawns();
+			case "restarts":
+				return getRestarts();
+			case "non-zero-exits":
+				return getNonZeroExits();
+			case "errors":
+				return getErrors();
+			case "timeouts":
+				return getTimeouts();
+			case "stale-reads":
+				return getStaleReads();
+			case "received":
+				return getReceived();
+			case "receive-rate":
+				return getReceiveRate();
+			case "startup-time":
+				return getStartupTime();
+			case "startup-wait":
+				return getStartupWait();
+			default:
+				throw new IllegalArgumentException("Unknown metric: " + metric);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	// Returns the driver for which metrics were created or null if metrics were created only with a name.
+	public Object getDriver() {
+		return driver;
+	}
+
+	@Override
+	public long getReads() {
+		return readLatency.getCount();
+	}
+
+	@Override
+	public long getReadErrors() {
+		return readErrors.get();
+	}
+
+	@Override
+	public double getReadLatencyMean() {
+		return readLatency.getMean();
+	}
+
+	@Override
+	public double getReadLatencyP50() {
+		return readLatency.getPercentile(50);
+	}
+
+	@Override
+	public double getReadLatencyP99() {
+		return readLatency.getPercentile(99);
+	}
+
+	@Override
+	public double getReadLatencyMax() {
+		return readLatency.getMax();
+	}
+
+	@Override
+	public long getCommands() {
+		return commandLatency.getCount();
+	}
+
+	@Override
+	public long getCommandErrors() {
+		return commandErrors.get();
+	}
+
+	@Override
+	public double getCommandLatencyMean() {
+		return commandLatency.getMean();
+	}
+
+	@Override
+	public double getCommandLatencyP50() {
+		return commandLatency.getPercentile(50);
+	}
+
+	@Override
+	public double getCommandLatencyP99() {
+		return commandLatency.getPercentile(99);
+	}
+
+	@Override
+	public double getCommandLatencyMax() {
+		return commandLatency.getMax();
+	}
+
+	@Override
+	public long getAvoidedWrites() {
+		return avoidedWrites.get();
+	}
+
+	@Override
+	public long getSpawns() {
+		return spawns.get();
+	}
+
+	@Override
+	public long getRestarts() {
+		LongSupplier externalRestarts = this.externalRestarts;
+		return restarts.get() + (externalRestarts == null ? 0 : externalRestarts.getAsLong());
+	}
+
+	@Override
+	public long getNonZeroExits() {
+		return nonZeroExits.get();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public long getStaleReads() {
+		return staleReads.get();
+	}
+
+	@Override
+	public long getReceived() {
+		return received.getCount();
+	}
+
+	// Returns average number of lines (or events) received per second during last 10 seconds.
+	@Override
+	public double getReceiveRate() {
+		return received.getRate();
+	}
+
+	// Returns time spent on activation of the driver.
+	@Override
+	public double getStartupTime() {
+		return startupTime / 1000000.0;
+	}
+
+	// Returns time for which activation of the driver waited for a free thread.
+	@Override
+	public double getStartupWait() {
+		return startupWait / 1000000.0;
+	}
+
+	private ObjectName getObjectName() throws JMException {
+		return new ObjectName("tigase.iot.examples:type=DriverMetrics,name=" + ObjectName.quote(name));
+	}
+
+	// Counter of events with number of events in each of the last seconds.
+	private static class Rate {
+
+		private static final int SECONDS = 10;
+		private static final int SLOTS = 16;
+
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+		private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);
+
+		void mark() {
+			count.incrementAndGet();
+			long second = System.currentTimeMillis() / 1000;
+			int slot = (int) (second % SLOTS);
+			long previous = seconds.get(slot);
+			if (previous != second && seconds.compareAndSet(slot, previous, second)) {
+				counts.set(slot, 0);
+			}
+			counts.incrementAndGet(slot);
+		}
+
+		long getCount() {
+			return count.get();
+		}
+
+		// Only complete seconds are taken into account.
+		double getRate() {
+			long now = System.currentTimeMillis() / 1000;
+			long sum = 0;
+			for (long second = now - SECONDS; second < now; second++) {
+				int slot = (int) (second % SLOTS);
+				if (seconds.get(slot) == second) {
+					sum += counts.get(slot);
+				}
+			}
+			return ((double) sum) / SECONDS;
+		}
+	}
+}
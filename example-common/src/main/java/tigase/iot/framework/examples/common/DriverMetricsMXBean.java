@@ -0,0 +1,73 @@
+/*
+ * DriverMetricsMXBean.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+// Metrics of the example driver exposed over JMX. Latencies are in milliseconds.
+public interface DriverMetricsMXBean {
+
+	String getName();
+
+	long getReads();
+
+	long getReadErrors();
+
+	double getReadLatencyMean();
+
+	double getReadLatencyP50();
+
+	double getReadLatencyP99();
+
+	double getReadLatencyMax();
+
+	long getCommands();
+
+	long getCommandErrors();
+
+	double getCommandLatencyMean();
+
+	double getCommandLatencyP50();
+
+	double getCommandLatencyP99();
+
+	double getCommandLatencyMax();
+
+	long getSpawns();
+
+	long getRestarts();
+
+	long getNonZeroExits();
+
+	long getErrors();
+
+	long getTimeouts();
+
+	long getStaleReads();
+
+	long getAvoidedWrites();
+
+	long getReceived();
+
+	double getReceiveRate();
+
+	double getStartupTime();
+
+	double getStartupWait();
+}
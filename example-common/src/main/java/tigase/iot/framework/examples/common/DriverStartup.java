@@ -0,0 +1,259 @@
+/*
+ * DriverStartup.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Activation of the drivers during startup of the hub.
+//
+// Drivers pass to start() the part of their initialization which opens processes or hardware, with one of the modes:
+// - "eager" - activation is executed immediately by the thread initializing the driver (as it was done before),
+// - "parallel" - activation is executed by a pool shared by all drivers, so independent drivers are activated in
+//   parallel and initialization of the driver returns immediately,
+// - "lazy" - activation is executed by the pool only when driver is used for the first time (see Activation.activate()).
+//
+// Duration of activation of each driver (and time for which it waited for a free thread) is recorded in its metrics
+// and when there are no more pending activations, report of activations completed in the meantime is logged, with
+// the slowest drivers first.
+//
+// Size of the pool may be set using `tigase.iot.examples.startup.threads` system property (default number of
+// available processors).
+public class DriverStartup {
+
+	private static final Logger log = Logger.getLogger(DriverStartup.class.getCanonicalName());
+
+	private static DriverStartup instance = null;
+
+	private final List<Timing> completed = new ArrayList<>();
+	private final ExecutorService executor;
+	private final List<Timing> timings = new ArrayList<>();
+	private int pending = 0;
+
+	public static synchronized DriverStartup getInstance() {
+		if (instance == null) {
+			instance = new DriverStartup(Integer.getInteger("tigase.iot.examples.startup.threads",
+															Runtime.getRuntime().availableProcessors()));
+		}
+		return instance;
+	}
+
+	public DriverStartup(int threads) {
+		AtomicInteger counter = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+															 new LinkedBlockingQueue<>(), r -> {
+			Thread thread = new Thread(r, "driver-startup-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// threads are needed only during startup and for lazy activations
+		executor.allowCoreThreadTimeOut(true);
+		this.executor = executor;
+	}
+
+	// Starts activation of the driver in the given mode (eager, parallel or lazy).
+	public Activation start(DriverMetrics metrics, String mode, Runnable task) {
+		Activation activation = new Activation(metrics, mode, task);
+		switch (mode) {
+			case "eager":
+				activation.submitted = System.nanoTime();
+				activation.run();
+				break;
+			case "parallel":
+				activation.activate();
+				break;
+			case "lazy":
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown startup mode: " + mode);
+		}
+		return activation;
+	}
+
+	// Returns timings of all completed activations.
+	public List<Timing> getTimings() {
+		synchronized (timings) {
+			return new ArrayList<>(timings);
+		}
+	}
+
+	// Returns number of activations which are queued or executed.
+	public int getPending() {
+		synchronized (timings) {
+			return pending;
+		}
+	}
+
+	private void submit(Activation activation) {
+		synchronized (timings) {
+			pending++;
+		}
+		activation.submitted = System.nanoTime();
+		executor.execute(() -> {
+			try {
+				activation.run();
+			} finally {
+				List<Timing> report = null;
+				synchronized (timings) {
+					if (--pending == 0) {
+						report = new ArrayList<>(completed);
+						completed.clear();
+					}
+				}
+				if (report != null) {
+					logReport(report);
+				}
+			}
+		});
+	}
+
+	private void completed(Timing timing) {
+		synchronized (timings) {
+			timings.add(timing);
+			completed.add(timing);
+		}
+		log.log(Level.FINE, "Activated driver " + timing);
+	}
+
+	private void logReport(List<Timing> report) {
+		if (report.isEmpty() || !log.isLoggable(Level.INFO)) {
+			return;
+		}
+		report.sort(Comparator.comparingLong(Timing::getDuration).reversed());
+		StringBuilder sb = new StringBuilder("Activated ").append(report.size()).append(" drivers:");
+		for (Timing timing : report) {
+			sb.append(System.lineSeparator()).append("  ").append(timing);
+		}
+		log.log(Level.INFO, sb.toString());
+	}
+
+	// Activation of a single driver.
+	public class Activation {
+
+		private final DriverMetrics metrics;
+		private final String mode;
+		private final Runnable task;
+		private boolean cancelled = false;
+		private boolean started = false;
+		private long submitted;
+
+		private Activation(DriverMetrics metrics, String mode, Runnable task) {
+			this.metrics = metrics;
+			this.mode = mode;
+			this.task = task;
+		}
+
+		// Schedules activation if it was not started yet. Lazy drivers should call it when they are used for the
+		// first time.
+		public void activate() {
+			synchronized (this) {
+				if (started || cancelled) {
+					return;
+				}
+				started = true;
+			}
+			submit(this);
+		}
+
+		public synchronized boolean isStarted() {
+			return started;
+		}
+
+		// Activation which was not executed yet will not be executed. Driver is responsible for releasing resources
+		// opened by the activation which was already executed.
+		public synchronized void cancel() {
+			cancelled = true;
+		}
+
+		private void run() {
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+				started = true;
+			}
+			long start = System.nanoTime();
+			boolean failed = false;
+			try {
+				task.run();
+			} catch (RuntimeException ex) {
+				failed = true;
+				log.log(Level.WARNING, "Could not activate driver " + metrics.getName(), ex);
+				metrics.error();
+			}
+			long end = System.nanoTime();
+			metrics.startupCompleted(start - submitted, end - start);
+			completed(new Timing(metrics.getName(), mode, start - submitted, end - start, failed));
+		}
+	}
+
+	// Times of activation of the driver in nanoseconds.
+	public static class Timing {
+
+		private final long duration;
+		private final boolean failed;
+		private final String mode;
+		private final String name;
+		private final long wait;
+
+		private Timing(String name, String mode, long wait, long duration, boolean failed) {
+			this.name = name;
+			this.mode = mode;
+			this.wait = wait;
+			this.duration = duration;
+			this.failed = failed;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getMode() {
+			return mode;
+		}
+
+		public long getWait() {
+			return wait;
+		}
+
+		public long getDuration() {
+			return duration;
+		}
+
+		public boolean isFailed() {
+			return failed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s (%s): %.1f ms, waited %.1f ms%s", name, mode, duration / 1000000.0,
+								 wait / 1000000.0, failed ? ", failed" : "");
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * ExecutionLaneMXBean.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+// Metrics of the execution lane exposed over JMX. Wait times are in milliseconds.
+public interface ExecutionLaneMXBean {
+
+	String getName();
+
+	int getPriority();
+
+	int getMaxProcesses();
+
+	int getRunning();
+
+	int getQueued();
+
+	int getMaxQueued();
+
+	long getExecuted();
+
+	double getWaitMean();
+
+	double getWaitP50();
+
+	double getWaitP99();
+
+	double getWaitMax();
+}
@@ -0,0 +1,263 @@
+/*
+ * ExecutionLanes.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Bounded execution lanes of scripts with priorities.
+//
+// Commands of devices and reads of periodic sensors are executed in separate lanes ("command" and "poll"). Each lane
+// limits number of scripts executed concurrently within it and all lanes share a limit of concurrently executed
+// scripts. Work waiting in a lane is started only if no lane with a higher priority has work waiting which could be
+// started, so queued reads never delay a command. As by default reads may use all but one of the shared slots, a
+// command does not wait for reads which are already running either.
+//
+// Shared limit may be set using `tigase.iot.examples.lanes.maxProcesses` system property (default twice the number of
+// CPUs) and limits of lanes using `tigase.iot.examples.lanes.command.maxProcesses` (default shared limit) and
+// `tigase.iot.examples.lanes.poll.maxProcesses` (default one less than shared limit). Metrics of lanes are available
+// over JMX as `tigase.iot.examples:type=ExecutionLane,name=<lane>`.
+public class ExecutionLanes {
+
+	public static final String COMMAND = "command";
+	public static final String POLL = "poll";
+
+	private static final Logger log = Logger.getLogger(ExecutionLanes.class.getCanonicalName());
+
+	private static ExecutionLanes instance = null;
+
+	private final Map<String, Lane> lanes = new LinkedHashMap<>();
+	private final int maxProcesses;
+	private int running = 0;
+
+	public static synchronized ExecutionLanes getInstance() {
+		if (instance == null) {
+			int maxProcesses = Integer.getInteger("tigase.iot.examples.lanes.maxProcesses",
+												  2 * Runtime.getRuntime().availableProcessors());
+			instance = new ExecutionLanes(maxProcesses);
+			instance.addLane(COMMAND, 10, Integer.getInteger("tigase.iot.examples.lanes.command.maxProcesses",
+															 maxProcesses)).register();
+			instance.addLane(POLL, 0, Integer.getInteger("tigase.iot.examples.lanes.poll.maxProcesses",
+														 Math.max(1, maxProcesses - 1))).register();
+		}
+		return instance;
+	}
+
+	public ExecutionLanes(int maxProcesses) {
+		this.maxProcesses = Math.max(1, maxProcesses);
+	}
+
+	// Adds lane, work in lanes with higher priority is started first.
+	public synchronized Lane addLane(String name, int priority, int maxProcesses) {
+		if (lanes.containsKey(name)) {
+			throw new IllegalArgumentException("Lane " + name + " already exists");
+		}
+		Lane lane = new Lane(name, priority, Math.max(1, maxProcesses));
+		lanes.put(name, lane);
+		return lane;
+	}
+
+	public synchronized Lane getLane(String name) {
+		Lane lane = lanes.get(name);
+		if (lane == null) {
+			throw new IllegalArgumentException("Unknown execution lane: " + name);
+		}
+		return lane;
+	}
+
+	public synchronized List<Lane> getLanes() {
+		return new ArrayList<>(lanes.values());
+	}
+
+	public int getMaxProcesses() {
+		return maxProcesses;
+	}
+
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	// Waits until script may be executed in the lane. Returned permit needs to be closed when script finishes.
+	public Permit acquire(String name) throws InterruptedException {
+		Lane lane = getLane(name);
+		long start = System.nanoTime();
+		synchronized (this) {
+			lane.queued++;
+			lane.maxQueued = Math.max(lane.maxQueued, lane.queued);
+			try {
+				while (!canStart(lane)) {
+					wait();
+				}
+			} catch (InterruptedException ex) {
+				// work in lanes with lower priority may not wait for this one anymore
+				notifyAll();
+				throw ex;
+			} finally {
+				lane.queued--;
+			}
+			lane.running++;
+			running++;
+		}
+		lane.waits.recordSince(start);
+		return new Permit(lane);
+	}
+
+	private boolean canStart(Lane lane) {
+		if (running >= maxProcesses || lane.running >= lane.maxProcesses) {
+			return false;
+		}
+		for (Lane other : lanes.values()) {
+			if (other.priority > lane.priority && other.queued > 0 && other.running < other.maxProcesses) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private synchronized void release(Lane lane) {
+		lane.running--;
+		lane.executed++;
+		running--;
+		notifyAll();
+	}
+
+	// Permit to execute script in the lane, released by close().
+	public class Permit
+			implements AutoCloseable {
+
+		private final Lane lane;
+		private boolean released = false;
+
+		private Permit(Lane lane) {
+			this.lane = lane;
+		}
+
+		@Override
+		public void close() {
+			synchronized (ExecutionLanes.this) {
+				if (released) {
+					return;
+				}
+				released = true;
+			}
+			release(lane);
+		}
+	}
+
+	public class Lane
+			implements ExecutionLaneMXBean {
+
+		private final int maxProcesses;
+		private final String name;
+		private final int priority;
+		private final LatencyHistogram waits = new LatencyHistogram();
+		private long executed = 0;
+		private int maxQueued = 0;
+		private int queued = 0;
+		private int running = 0;
+
+		private Lane(String name, int priority, int maxProcesses) {
+			this.name = name;
+			this.priority = priority;
+			this.maxProcesses = maxProcesses;
+		}
+
+		// Registers metrics of the lane in JMX.
+		public void register() {
+			try {
+				ManagementFactory.getPlatformMBeanServer()
+						.registerMBean(this, new ObjectName("tigase.iot.examples:type=ExecutionLane,name=" + name));
+			} catch (JMException ex) {
+				log.log(Level.WARNING, "Could not register metrics of execution lane " + name + " in JMX", ex);
+			}
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public int getPriority() {
+			return priority;
+		}
+
+		@Override
+		public int getMaxProcesses() {
+			return maxProcesses;
+		}
+
+		@Override
+		public int getRunning() {
+			synchronized (ExecutionLanes.this) {
+				return running;
+			}
+		}
+
+		@Override
+		public int getQueued() {
+			synchronized (ExecutionLanes.this) {
+				return queued;
+			}
+		}
+
+		@Override
+		public int getMaxQueued() {
+			synchronized (ExecutionLanes.this) {
+				return maxQueued;
+			}
+		}
+
+		@Override
+		public long getExecuted() {
+			synchronized (ExecutionLanes.this) {
+				return executed;
+			}
+		}
+
+		@Override
+		public double getWaitMean() {
+			return waits.getMean();
+		}
+
+		@Override
+		public double getWaitP50() {
+			return waits.getPercentile(50);
+		}
+
+		@Override
+		public double getWaitP99() {
+			return waits.getPercentile(99);
+		}
+
+		@Override
+		public double getWaitMax() {
+			return waits.getMax();
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * JournalSink.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import tigase.iot.framework.devices.IValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Sink of UpdatePublisher which stores updates in the UpdateJournal while the hub is not connected to the XMPP server
+// and replays them when it is connected again, instead of passing them to the sink which would lose them.
+//
+// State of the connection is checked using the provided supplier. While there are updates waiting in the journal or
+// replayed batch is being passed to the sink, new updates are appended to the journal as well, so updates are always
+// published in the order in which they were provided by the drivers. Updates are replayed in batches of `replayBatch`
+// updates, limited to `replayRate` updates per second, with values and timestamps as they were provided by the drivers
+// (see UpdateJournal for limits of the size of the journal).
+//
+// Journal covers disconnections within a single run of the process. Updates are stored with ids of drivers which are
+// valid only in the running process, so updates left in the journal when the process is stopped are not replayed
+// after the restart and the journal is cleared when it is created.
+//
+// Journal may be enabled by replacing the sink of UpdatePublisher, ie.:
+//
+//   UpdatePublisher publisher = UpdatePublisher.getInstance();
+//   publisher.setSink(JournalSink.create(publisher.getSink(), () -> isConnected()));
+//
+// Journal created by create() is kept in the directory set using `tigase.iot.examples.journal.dir` system property
+// (default `journal`) and its limits may be set using `tigase.iot.examples.journal.segmentSize` (default 1 MB),
+// `maxSize` (default 64 MB), `compactThreshold` (default 32 MB), `replayBatch` (default 500) and `replayRate`
+// (default 1000) properties with the same prefix.
+public class JournalSink
+		implements UpdatePublisher.Sink {
+
+	private static final Logger log = Logger.getLogger(JournalSink.class.getCanonicalName());
+
+	private final BooleanSupplier connected;
+	private final UpdatePublisher.Sink delegate;
+	private final Map<Object, Integer> ids = new HashMap<>();
+	private final UpdateJournal journal;
+	private final int replayBatch;
+	private final long replayRate;
+	private final List<Source> sources = new ArrayList<>();
+	private long journaled = 0;
+	private long lost = 0;
+	private long replayed = 0;
+	private boolean replaying = false;
+	private Thread thread = null;
+
+	public static JournalSink create(UpdatePublisher.Sink delegate, BooleanSupplier connected) throws IOException {
+		String prefix = "tigase.iot.examples.journal.";
+		UpdateJournal journal = new UpdateJournal(new File(System.getProperty(prefix + "dir", "journal")),
+												  Integer.getInteger(prefix + "segmentSize", 1024 * 1024),
+												  Long.getLong(prefix + "maxSize", 64 * 1024 * 1024),
+												  Long.getLong(prefix + "compactThreshold", 32 * 1024 * 1024));
+		return new JournalSink(delegate, connected, journal, Integer.getInteger(prefix + "replayBatch", 500),
+							   Long.getLong(prefix + "replayRate", 1000));
+	}
+
+	public JournalSink(UpdatePublisher.Sink delegate, BooleanSupplier connected, UpdateJournal journal,
+					   int replayBatch, long replayRate) {
+		this.delegate = delegate;
+		this.connected = connected;
+		this.journal = journal;
+		this.replayBatch = Math.max(1, replayBatch);
+		this.replayRate = replayRate;
+	}
+
+	@Override
+	public void publish(List<UpdatePublisher.Update<?>> batch) {
+		List<UpdatePublisher.Update<?>> direct = batch;
+		synchronized (this) {
+			if (!connected.getAsBoolean() || journal.size() > 0 || replaying) {
+				direct = null;
+				for (UpdatePublisher.Update<?> update : batch) {
+					append(update);
+				}
+				startReplay();
+				notifyAll();
+			}
+		}
+		if (direct != null) {
+			delegate.publish(direct);
+		}
+	}
+
+	public UpdateJournal getJournal() {
+		return journal;
+	}
+
+	// Returns number of updates stored in the journal.
+	public synchronized long getJournaled() {
+		return journaled;
+	}
+
+	// Returns number of updates which could not be stored in the journal.
+	public synchronized long getLost() {
+		return lost;
+	}
+
+	public synchronized long getReplayed() {
+		return replayed;
+	}
+
+	// Should be called by the holder of the connection when it is established, so replay starts without waiting for
+	// the next check of the connection state.
+	public synchronized void connected() {
+		notifyAll();
+	}
+
+	private void append(UpdatePublisher.Update<?> update) {
+		IValue value = update.getValue();
+		ValueType type = ValueType.of(value);
+		if (type == null) {
+			lost++;
+			log.log(Level.FINE, "Value of type " + value.getClass() + " cannot be stored in the journal");
+			return;
+		}
+		try {
+			journal.append(getId(update), type.ordinal(), toMillis(value.getTimestamp()), ValueType.toDouble(value));
+			journaled++;
+		} catch (IOException ex) {
+			lost++;
+			log.log(Level.WARNING, "Could not store update of " + update.getSource() + " in the journal", ex);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private int getId(UpdatePublisher.Update<?> update) {
+		Integer id = ids.get(update.getSource());
+		if (id == null) {
+			id = sources.size();
+			ids.put(update.getSource(), id);
+			sources.add(new Source(update.getSource(), (Consumer<IValue>) update.getUpdateValue()));
+		}
+		return id;
+	}
+
+	private void startReplay() {
+		if (thread == null) {
+			thread = new Thread(this::replay, "journal-replay");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	// Executed by the replay thread, publishes batches of updates from the journal while the hub is connected.
+	private void replay() {
+		long nanosPerUpdate = replayRate > 0 ? TimeUnit.SECONDS.toNanos(1) / replayRate : 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			List<UpdatePublisher.Update<?>> batch = new ArrayList<>();
+			synchronized (this) {
+				try {
+					// connection state is checked every second, unless connected() is called
+					while (journal.size() == 0 || !connected.getAsBoolean()) {
+						wait(1000);
+					}
+				} catch (InterruptedException ex) {
+					return;
+				}
+				journal.poll(replayBatch, (source, type, timestamp, value) -> batch.add(
+						sources.get(source).update(ValueType.values()[type].create(value, toTime(timestamp)))));
+				replayed += batch.size();
+				// journal may be empty now, but new updates cannot be published before this batch
+				replaying = true;
+			}
+			long start = System.nanoTime();
+			try {
+				delegate.publish(batch);
+			} catch (RuntimeException ex) {
+				log.log(Level.WARNING, "Could not publish batch of " + batch.size() + " updates from the journal", ex);
+			} finally {
+				synchronized (this) {
+					replaying = false;
+				}
+			}
+			long remaining = batch.size() * nanosPerUpdate - (System.nanoTime() - start);
+			if (remaining > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(remaining);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+		}
+	}
+
+	private static long toMillis(LocalDateTime timestamp) {
+		return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+
+	private static LocalDateTime toTime(long millis) {
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+	}
+
+	// Driver which provided updates stored in the journal.
+	private static class Source {
+
+		private final Object source;
+		private final Consumer<IValue> updateValue;
+
+		private Source(Object source, Consumer<IValue> updateValue) {
+			this.source = source;
+			this.updateValue = updateValue;
+		}
+
+		private UpdatePublisher.Update<?> update(IValue value) {
+			return new UpdatePublisher.Update<>(source, value, updateValue);
+		}
+	}
+}
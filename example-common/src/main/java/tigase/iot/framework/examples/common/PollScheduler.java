@@ -0,0 +1,314 @@
+/*
+ * PollScheduler.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Shared scheduler of reads for periodic sensors, implemented as a hashed timer wheel.
+//
+// Instead of each sensor waking up at its own time, reads are executed on ticks of a single timer thread. First read
+// of each task is aligned to a multiple of its period, so sensors with the same (or compatible) periods are read on the
+// same tick and CPU may stay idle between ticks. Optional jitter moves task by a fixed (based on the task name)
+// number of ticks to spread reads of large groups of sensors.
+//
+// Reads are executed by a small pool of threads. Each task belongs to a group (ie. bus or script) and number of
+// concurrent reads within the group may be limited - reads which could not be started are deferred to the next tick.
+// Limit is a setting of the scheduler, shared by all sensors of the group.
+//
+// Scheduler returned by getInstance() is configured using system properties `tigase.iot.examples.scheduler.tick`
+// (tick duration in milliseconds, default 100), `wheelSize` (number of buckets of the wheel, default 512), `threads`
+// (number of threads executing reads, default 4) and `maxConcurrentReads` (limit of concurrent reads in each group,
+// default 0 - no limit) with the same prefix. Limit of a single group may be set using `maxConcurrentReads.<group>`
+// property, ie. `tigase.iot.examples.scheduler.maxConcurrentReads.i2c-1=1`.
+public class PollScheduler {
+
+	private static final Logger log = Logger.getLogger(PollScheduler.class.getCanonicalName());
+
+	private static final String PROPERTY_PREFIX = "tigase.iot.examples.scheduler.";
+
+	private static PollScheduler instance = null;
+
+	private final Queue<Task> added = new ConcurrentLinkedQueue<>();
+	private final List<Task>[] buckets;
+	private final AtomicLong deferredReads = new AtomicLong();
+	private final ExecutorService executor;
+	private final int groupLimit;
+	private final Map<String, Integer> groupLimits = new ConcurrentHashMap<>();
+	private final Map<String, Semaphore> groups = new ConcurrentHashMap<>();
+	private final AtomicLong lateReads = new AtomicLong();
+	private final AtomicLong maxLateness = new AtomicLong();
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong skippedReads = new AtomicLong();
+	private final long tick;
+	private final AtomicLong ticks = new AtomicLong();
+	private long currentTick;
+	private Thread timer = null;
+
+	public static synchronized PollScheduler getInstance() {
+		if (instance == null) {
+			instance = new PollScheduler(Long.getLong(PROPERTY_PREFIX + "tick", 100),
+										 Integer.getInteger(PROPERTY_PREFIX + "wheelSize", 512),
+										 Integer.getInteger(PROPERTY_PREFIX + "threads", 4),
+										 Integer.getInteger(PROPERTY_PREFIX + "maxConcurrentReads", 0));
+		}
+		return instance;
+	}
+
+	public PollScheduler(long tick, int wheelSize, int threads) {
+		this(tick, wheelSize, threads, 0);
+	}
+
+	// Group limit is a maximal number of concurrent reads in each group (0 - no limit), unless limit of the group is
+	// set separately.
+	@SuppressWarnings("unchecked")
+	public PollScheduler(long tick, int wheelSize, int threads, int groupLimit) {
+		this.tick = tick;
+		this.groupLimit = groupLimit;
+		this.buckets = new List[wheelSize];
+		for (int i = 0; i < wheelSize; i++) {
+			buckets[i] = new ArrayList<>();
+		}
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "poll-scheduler-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.currentTick = System.currentTimeMillis() / tick;
+	}
+
+	// Schedules read executed every `period` milliseconds. Jitter is a maximal delay (in milliseconds) added to the
+	// aligned time of the read.
+	public Task schedule(String name, String group, long period, long jitter, Runnable read) {
+		Task task = new Task(name, group, Math.max(1, (period + tick - 1) / tick), jitter / tick, read);
+		added.offer(task);
+		synchronized (this) {
+			if (timer == null) {
+				timer = new Thread(this::run, "poll-scheduler");
+				timer.setDaemon(true);
+				timer.start();
+			}
+		}
+		return task;
+	}
+
+	// Sets maximal number of concurrent reads in the group, 0 means no limit.
+	public void setGroupLimit(String group, int limit) {
+		groupLimits.put(group, limit);
+		groups.remove(group);
+	}
+
+	public int getGroupLimit(String group) {
+		Integer limit = groupLimits.get(group);
+		if (limit == null) {
+			limit = Integer.getInteger(PROPERTY_PREFIX + "maxConcurrentReads." + group, groupLimit);
+		}
+		return limit;
+	}
+
+	public long getTickDuration() {
+		return tick;
+	}
+
+	public long getTicks() {
+		return ticks.get();
+	}
+
+	public long getReads() {
+		return reads.get();
+	}
+
+	// Number of reads started later than one tick after their scheduled time.
+	public long getLateReads() {
+		return lateReads.get();
+	}
+
+	// Number of reads postponed to the next tick because of the limit of concurrent reads in the group.
+	public long getDeferredReads() {
+		return deferredReads.get();
+	}
+
+	// Number of reads not started because previous read of the same task was still running.
+	public long getSkippedReads() {
+		return skippedReads.get();
+	}
+
+	// Maximal delay (in milliseconds) between scheduled and actual start of a read.
+	public long getMaxLateness() {
+		return maxLateness.get();
+	}
+
+	private void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			long now = System.currentTimeMillis();
+			long nowTick = now / tick;
+			while (currentTick <= nowTick) {
+				processTick(currentTick, now);
+				currentTick++;
+			}
+			try {
+				Thread.sleep(Math.max(1, currentTick * tick - System.currentTimeMillis()));
+			} catch (InterruptedException ex) {
+				return;
+			}
+		}
+	}
+
+	private void processTick(long tickNo, long now) {
+		Task task;
+		while ((task = added.poll()) != null) {
+			if (!task.cancelled) {
+				long period = task.periodTicks;
+				long aligned = ((tickNo / period) + 1) * period;
+				insert(task, aligned + (task.jitterTicks > 0 ? Math.floorMod(task.name.hashCode(), task.jitterTicks + 1) : 0));
+			}
+		}
+
+		ticks.incrementAndGet();
+		int due = 0;
+		int late = 0;
+		List<Task> bucket = buckets[(int) (tickNo % buckets.length)];
+		List<Task> deferred = null;
+		for (Iterator<Task> it = bucket.iterator(); it.hasNext(); ) {
+			task = it.next();
+			if (task.cancelled) {
+				it.remove();
+				continue;
+			}
+			if (task.deadline > tickNo) {
+				continue;
+			}
+			it.remove();
+			due++;
+			long lateness = now - task.deadline * tick;
+			if (lateness > tick) {
+				late++;
+				lateReads.incrementAndGet();
+			}
+			maxLateness.accumulateAndGet(lateness, Math::max);
+			if (!start(task)) {
+				if (deferred == null) {
+					deferred = new ArrayList<>();
+				}
+				deferred.add(task);
+				continue;
+			}
+			long next = task.deadline + task.periodTicks;
+			if (next <= tickNo) {
+				// we are behind the schedule, so missed reads are skipped
+				next = tickNo + task.periodTicks - ((tickNo - task.deadline) % task.periodTicks);
+			}
+			insert(task, next);
+		}
+		if (deferred != null) {
+			for (Task t : deferred) {
+				deferredReads.incrementAndGet();
+				t.deadline = tickNo + 1;
+				buckets[(int) ((tickNo + 1) % buckets.length)].add(t);
+			}
+		}
+		if (late > 0 && log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Tick " + tickNo + ": " + late + " of " + due + " reads started late");
+		}
+	}
+
+	// Returns semaphore limiting reads in the group or null if reads in the group are not limited.
+	private Semaphore getGroupSemaphore(String group) {
+		Semaphore semaphore = groups.get(group);
+		if (semaphore == null) {
+			int limit = getGroupLimit(group);
+			if (limit <= 0) {
+				return null;
+			}
+			semaphore = groups.computeIfAbsent(group, name -> new Semaphore(limit));
+		}
+		return semaphore;
+	}
+
+	private void insert(Task task, long deadline) {
+		task.deadline = deadline;
+		buckets[(int) (deadline % buckets.length)].add(task);
+	}
+
+	private boolean start(Task task) {
+		Semaphore limit = getGroupSemaphore(task.group);
+		if (limit != null && !limit.tryAcquire()) {
+			return false;
+		}
+		if (!task.running.compareAndSet(false, true)) {
+			if (limit != null) {
+				limit.release();
+			}
+			skippedReads.incrementAndGet();
+			return true;
+		}
+		reads.incrementAndGet();
+		executor.execute(() -> {
+			try {
+				task.read.run();
+			} catch (RuntimeException ex) {
+				log.log(Level.FINE, "Read of " + task.name + " failed", ex);
+			} finally {
+				task.running.set(false);
+				if (limit != null) {
+					limit.release();
+				}
+			}
+		});
+		return true;
+	}
+
+	public static class Task {
+
+		private final String group;
+		private final long jitterTicks;
+		private final String name;
+		private final long periodTicks;
+		private final Runnable read;
+		private final AtomicBoolean running = new AtomicBoolean(false);
+		private volatile boolean cancelled = false;
+		private long deadline;
+
+		private Task(String name, String group, long periodTicks, long jitterTicks, Runnable read) {
+			this.name = name;
+			this.group = group == null ? "" : group;
+			this.periodTicks = periodTicks;
+			this.jitterTicks = jitterTicks;
+			this.read = read;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * SampleHistory.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import java.nio.ByteBuffer;
+
+// Fixed-size history of values published by a sensor.
+//
+// Each sample is stored as a pair of timestamp (milliseconds since epoch) and numeric value in a direct buffer
+// (outside of the java heap) used as a ring buffer, so memory used by the history depends only on its capacity
+// (16 bytes per sample) and not on the number of samples written. When the buffer is full the oldest sample is
+// overwritten.
+//
+// Timestamps are expected to be increasing, which allows finding samples for the requested time range with a binary
+// search. Sample with a timestamp older than the previous one is stored with the timestamp of the previous sample.
+public class SampleHistory {
+
+	private static final int ENTRY_SIZE = 16;
+
+	private final ByteBuffer buffer;
+	private final int capacity;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private long written = 0;
+
+	public SampleHistory(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("History capacity must be greater than 0");
+		}
+		this.capacity = capacity;
+		this.buffer = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int size() {
+		return (int) Math.min(written, capacity);
+	}
+
+	public synchronized void add(long timestamp, double value) {
+		if (timestamp < lastTimestamp) {
+			timestamp = lastTimestamp;
+		}
+		lastTimestamp = timestamp;
+		int offset = (int) (written % capacity) * ENTRY_SIZE;
+		buffer.putLong(offset, timestamp);
+		buffer.putDouble(offset + 8, value);
+		written++;
+	}
+
+	public synchronized long getOldestTimestamp() {
+		return written == 0 ? Long.MIN_VALUE : timestamp(oldest());
+	}
+
+	public synchronized long getNewestTimestamp() {
+		return lastTimestamp;
+	}
+
+	// Returns samples from the range [from, to] aggregated into `buckets` buckets of equal length. For each bucket
+	// minimal, maximal and average value of the samples within the bucket are calculated.
+	public synchronized Series query(long from, long to, int buckets) {
+		if (buckets <= 0 || to < from) {
+			throw new IllegalArgumentException("Invalid range or number of buckets");
+		}
+		long width = Math.max(1, (to - from) / buckets + 1);
+		Series series = new Series(from, width, buckets);
+		for (long i = find(from); i < written; i++) {
+			long timestamp = timestamp(i);
+			if (timestamp > to) {
+				break;
+			}
+			series.add((int) ((timestamp - from) / width), value(i));
+		}
+		return series;
+	}
+
+	// Returns index of the first sample with timestamp not older than `timestamp`.
+	private long find(long timestamp) {
+		long low = oldest();
+		long high = written;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (timestamp(mid) < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private long oldest() {
+		return Math.max(0, written - capacity);
+	}
+
+	private long timestamp(long index) {
+		return buffer.getLong((int) (index % capacity) * ENTRY_SIZE);
+	}
+
+	private double value(long index) {
+		return buffer.getDouble((int) (index % capacity) * ENTRY_SIZE + 8);
+	}
+
+	// Result of the query. Buckets without samples have count equal to 0 and NaN as minimal, maximal and average value.
+	public static class Series {
+
+		private final int[] count;
+		private final long from;
+		private final double[] max;
+		private final double[] min;
+		private final double[] sum;
+		private final long width;
+
+		private Series(long from, long width, int buckets) {
+			this.from = from;
+			this.width = width;
+			this.count = new int[buckets];
+			this.min = new double[buckets];
+			this.max = new double[buckets];
+			this.sum = new double[buckets];
+		}
+
+		public int size() {
+			return count.length;
+		}
+
+		public long getStart(int bucket) {
+			return from + bucket * width;
+		}
+
+		public long getWidth() {
+			return width;
+		}
+
+		public int getCount(int bucket) {
+			return count[bucket];
+		}
+
+		public double getMin(int bucket) {
+			return count[bucket] == 0 ? Double.NaN : min[bucket];
+		}
+
+		public double getMax(int bucket) {
+			return count[bucket] == 0 ? Double.NaN : max[bucket];
+		}
+
+		public double getAverage(int bucket) {
+			return count[bucket] == 0 ? Double.NaN : sum[bucket] / count[bucket];
+		}
+
+		private void add(int bucket, double value) {
+			if (count[bucket]++ == 0) {
+				min[bucket] = value;
+				max[bucket] = value;
+			} else {
+				min[bucket] = Math.min(min[bucket], value);
+				max[bucket] = Math.max(max[bucket], value);
+			}
+			sum[bucket] += value;
+		}
+	}
+}
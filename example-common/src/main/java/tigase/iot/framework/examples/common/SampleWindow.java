@@ -0,0 +1,210 @@
+/*
+ * SampleWindow.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Aggregates of values received in an aggregation window (see AggregationSensor).
+//
+// Window is divided into panes, each covering one period after which the window is published (single pane for
+// tumbling windows). Count, sum, minimum and maximum are updated in the current pane when a value is added, so they
+// are exact regardless of the number of values, and statistics of the window are calculated by merging its panes.
+// When window is published, the oldest pane is cleared and becomes the current one.
+//
+// Percentiles need the values, so each pane keeps up to `maxSamples / panes` of them selected by reservoir sampling,
+// which keeps a uniform sample of values of the pane when there are more of them. Samples of each pane are weighted by
+// the number of values they represent when percentiles are calculated. Samples are kept in primitive arrays, so adding
+// a value does not allocate any objects.
+public class SampleWindow {
+
+	private final Pane[] panes;
+	private int current = 0;
+
+	public SampleWindow(int panes, int maxSamples) {
+		if (panes <= 0 || maxSamples <= 0) {
+			throw new IllegalArgumentException("Number of panes and samples of the window must be greater than 0");
+		}
+		this.panes = new Pane[panes];
+		for (int i = 0; i < panes; i++) {
+			this.panes[i] = new Pane(Math.max(1, maxSamples / panes));
+		}
+	}
+
+	public int getPanes() {
+		return panes.length;
+	}
+
+	// Returns number of values in the window.
+	public synchronized long getCount() {
+		long count = 0;
+		for (Pane pane : panes) {
+			count += pane.count;
+		}
+		return count;
+	}
+
+	public synchronized void add(double value) {
+		panes[current].add(value);
+	}
+
+	// Moves to the next pane, removing values of the oldest pane from the window.
+	public synchronized void next() {
+		current = (current + 1) % panes.length;
+		panes[current].clear();
+	}
+
+	public synchronized void clear() {
+		for (Pane pane : panes) {
+			pane.clear();
+		}
+	}
+
+	// Returns the statistic of the values in the window or NaN if window is empty. Supported statistics are "avg",
+	// "min", "max", "count" and percentiles, ie. "p50" or "p99.9".
+	public synchronized double get(String statistic) {
+		long count = getCount();
+		if (count == 0) {
+			return Double.NaN;
+		}
+		switch (statistic) {
+			case "avg":
+				double sum = 0;
+				for (Pane pane : panes) {
+					sum += pane.sum;
+				}
+				return sum / count;
+			case "min":
+				double min = Double.POSITIVE_INFINITY;
+				for (Pane pane : panes) {
+					min = Math.min(min, pane.min);
+				}
+				return min;
+			case "max":
+				double max = Double.NEGATIVE_INFINITY;
+				for (Pane pane : panes) {
+					max = Math.max(max, pane.max);
+				}
+				return max;
+			case "count":
+				return count;
+			default:
+				return percentile(parsePercentile(statistic), count);
+		}
+	}
+
+	// Checks if the statistic is supported and throws IllegalArgumentException if it is not.
+	public static void validate(String statistic) {
+		switch (statistic) {
+			case "avg":
+			case "min":
+			case "max":
+			case "count":
+				break;
+			default:
+				parsePercentile(statistic);
+		}
+	}
+
+	private static double parsePercentile(String statistic) {
+		if (statistic.startsWith("p")) {
+			try {
+				double percentile = Double.parseDouble(statistic.substring(1));
+				if (percentile >= 0 && percentile <= 100) {
+					return percentile;
+				}
+			} catch (NumberFormatException ex) {
+				// reported below
+			}
+		}
+		throw new IllegalArgumentException("Unsupported statistic: " + statistic);
+	}
+
+	// Nearest-rank percentile. Samples of each pane are sorted in place (order of samples in the reservoir does not
+	// matter) and merged in order of values until their weight reaches the rank.
+	private double percentile(double percentile, long count) {
+		int[] positions = new int[panes.length];
+		for (Pane pane : panes) {
+			Arrays.sort(pane.samples, 0, pane.size());
+		}
+		double rank = Math.max(1, Math.ceil(percentile / 100 * count));
+		double weight = 0;
+		double value = Double.NaN;
+		while (true) {
+			int next = -1;
+			for (int i = 0; i < panes.length; i++) {
+				if (positions[i] < panes[i].size() &&
+						(next < 0 || panes[i].samples[positions[i]] < panes[next].samples[positions[next]])) {
+					next = i;
+				}
+			}
+			if (next < 0) {
+				// rounding of weights, the highest value is the result
+				return value;
+			}
+			value = panes[next].samples[positions[next]++];
+			weight += (double) panes[next].count / panes[next].size();
+			if (weight >= rank) {
+				return value;
+			}
+		}
+	}
+
+	private static class Pane {
+
+		private final double[] samples;
+		private long count = 0;
+		private double max = Double.NEGATIVE_INFINITY;
+		private double min = Double.POSITIVE_INFINITY;
+		private double sum = 0;
+
+		private Pane(int maxSamples) {
+			this.samples = new double[maxSamples];
+		}
+
+		private void add(double value) {
+			if (count < samples.length) {
+				samples[(int) count] = value;
+			} else {
+				long index = ThreadLocalRandom.current().nextLong(count + 1);
+				if (index < samples.length) {
+					samples[(int) index] = value;
+				}
+			}
+			count++;
+			sum += value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+
+		// Returns number of samples kept in the pane.
+		private int size() {
+			return (int) Math.min(count, samples.length);
+		}
+
+		private void clear() {
+			count = 0;
+			sum = 0;
+			min = Double.POSITIVE_INFINITY;
+			max = Double.NEGATIVE_INFINITY;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * UpdateJournal.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Append-only journal of values kept in memory-mapped segment files, so number of kept values is not limited by the
+// size of the java heap.
+//
+// Each record has fixed size of 24 bytes: 4 byte id of the source, 4 byte value type (ordinal of ValueType), 8 byte
+// timestamp (milliseconds since epoch) and 8 byte value. Records are appended to the last segment and when it is full
+// new segment is created. Records are read in the order in which they were appended and segments which were read
+// completely are deleted.
+//
+// When size of segments exceeds `compactThreshold`, journal is compacted and only the latest record of each source is
+// kept (it is repeated only after size of the journal doubles). If size of segments would exceed `maxSize` even after
+// compaction, the oldest segment is dropped.
+//
+// Ids of the sources are valid only in the running process, so segments left by the previous process are deleted
+// when journal is created - journal keeps updates only while the hub is disconnected within a single run of the
+// process. Mapping of a segment is released before its file is deleted, so deleted segments do not use disk space.
+public class UpdateJournal {
+
+	public static final int RECORD_SIZE = 24;
+
+	private static final Logger log = Logger.getLogger(UpdateJournal.class.getCanonicalName());
+
+	private final long compactThreshold;
+	private final File dir;
+	private final long maxSize;
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private final int segmentSize;
+	private long compactions = 0;
+	// number of segments left by the last compaction
+	private int compacted = 0;
+	private long dropped = 0;
+	private long nextSegment = 0;
+	private long size = 0;
+
+	public UpdateJournal(File dir, int segmentSize, long maxSize, long compactThreshold) throws IOException {
+		if (segmentSize < RECORD_SIZE) {
+			throw new IllegalArgumentException("Segment size needs to be at least " + RECORD_SIZE + " bytes");
+		}
+		this.dir = dir;
+		this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+		this.maxSize = Math.max(maxSize, this.segmentSize);
+		this.compactThreshold = Math.min(compactThreshold, this.maxSize);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create journal directory " + dir);
+		}
+		File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	// Appends record to the journal.
+	public synchronized void append(int source, int type, long timestamp, double value) throws IOException {
+		Segment segment = segments.peekLast();
+		if (segment == null || segment.isFull()) {
+			// compaction is repeated only after the journal doubles, as most of the records may be latest values
+			if ((segments.size() + 1L) * segmentSize > compactThreshold && segments.size() >= 2 * compacted) {
+				compact();
+			}
+			while ((segments.size() + 1L) * segmentSize > maxSize) {
+				Segment oldest = segments.pollFirst();
+				dropped += oldest.remaining();
+				size -= oldest.remaining();
+				oldest.delete();
+				log.log(Level.WARNING, "Journal " + dir + " is full, dropped segment " + oldest.file.getName());
+			}
+			segment = segments.peekLast();
+			if (segment == null || segment.isFull()) {
+				segment = newSegment();
+			}
+		}
+		segment.append(source, type, timestamp, value);
+		size++;
+	}
+
+	// Passes up to `max` oldest records to the reader and removes them from the journal. Returns number of records
+	// passed to the reader.
+	public synchronized int poll(int max, RecordReader reader) {
+		int count = 0;
+		while (count < max) {
+			Segment segment = segments.peekFirst();
+			if (segment == null) {
+				break;
+			}
+			if (segment.remaining() == 0) {
+				if (segment.isFull() || segments.size() > 1) {
+					segments.pollFirst().delete();
+					continue;
+				}
+				break;
+			}
+			segment.read(reader);
+			size--;
+			count++;
+		}
+		compacted = Math.min(compacted, segments.size());
+		return count;
+	}
+
+	// Returns number of records in the journal.
+	public synchronized long size() {
+		return size;
+	}
+
+	// Returns size of the segment files in bytes.
+	public synchronized long getDiskUsage() {
+		return (long) segments.size() * segmentSize;
+	}
+
+	public synchronized long getCompactions() {
+		return compactions;
+	}
+
+	// Returns number of records dropped as journal exceeded its maximal size.
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	public synchronized void close() {
+		while (!segments.isEmpty()) {
+			segments.pollFirst().delete();
+		}
+		size = 0;
+	}
+
+	// Keeps only the latest record of each source, in the order in which they were appended.
+	private void compact() throws IOException {
+		Map<Integer, long[]> latest = new LinkedHashMap<>();
+		long before = size;
+		poll(Integer.MAX_VALUE, (source, type, timestamp, value) -> {
+			// moving the record to the end keeps the order of the latest records
+			latest.remove(source);
+			latest.put(source, new long[]{type, timestamp, Double.doubleToRawLongBits(value)});
+		});
+		for (Segment segment : segments) {
+			segment.delete();
+		}
+		segments.clear();
+		size = 0;
+		compactions++;
+		for (Map.Entry<Integer, long[]> e : latest.entrySet()) {
+			long[] record = e.getValue();
+			Segment segment = segments.peekLast();
+			if (segment == null || segment.isFull()) {
+				segment = newSegment();
+			}
+			segment.append(e.getKey(), (int) record[0], record[1], Double.longBitsToDouble(record[2]));
+			size++;
+		}
+		compacted = segments.size();
+		log.log(Level.FINE, "Compacted journal " + dir + " from " + before + " to " + size + " records");
+	}
+
+	private Segment newSegment() throws IOException {
+		File file = new File(dir, String.format("journal-%016d.seg", nextSegment++));
+		Segment segment = new Segment(file, segmentSize);
+		segments.addLast(segment);
+		return segment;
+	}
+
+	// Releases mapping of the buffer using its cleaner (sun.misc.Unsafe.invokeCleaner() on Java 9 and newer), so space
+	// of the deleted file is freed right away. If the cleaner is not accessible, mapping is released when the buffer is
+	// garbage collected.
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner;
+			try {
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (NoSuchMethodException ex) {
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+				return;
+			}
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			log.log(Level.FINE, "Could not unmap journal segment, it will be unmapped by the garbage collector", ex);
+		}
+	}
+
+	public interface RecordReader {
+
+		void read(int source, int type, long timestamp, double value);
+	}
+
+	// Segment file mapped to memory. Data is read from and written to the mapped buffer, so it does not use the heap.
+	private static class Segment {
+
+		private final MappedByteBuffer buffer;
+		private final File file;
+		private boolean deleted = false;
+		private int readPosition = 0;
+		private int writePosition = 0;
+
+		private Segment(File file, int size) throws IOException {
+			this.file = file;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(size);
+				this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+		}
+
+		private boolean isFull() {
+			return writePosition + RECORD_SIZE > buffer.capacity();
+		}
+
+		private int remaining() {
+			return (writePosition - readPosition) / RECORD_SIZE;
+		}
+
+		private void append(int source, int type, long timestamp, double value) {
+			buffer.putInt(writePosition, source);
+			buffer.putInt(writePosition + 4, type);
+			buffer.putLong(writePosition + 8, timestamp);
+			buffer.putDouble(writePosition + 16, value);
+			writePosition += RECORD_SIZE;
+		}
+
+		private void read(RecordReader reader) {
+			int position = readPosition;
+			readPosition += RECORD_SIZE;
+			reader.read(buffer.getInt(position), buffer.getInt(position + 4), buffer.getLong(position + 8),
+						buffer.getDouble(position + 16));
+		}
+
+		// Segment cannot be used after it is deleted, as its buffer is unmapped.
+		private void delete() {
+			if (deleted) {
+				return;
+			}
+			deleted = true;
+			unmap(buffer);
+			if (!file.delete()) {
+				log.log(Level.FINE, "Could not delete journal segment " + file);
+			}
+		}
+	}
+}
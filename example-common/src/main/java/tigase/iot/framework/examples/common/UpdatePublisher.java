@@ -0,0 +1,320 @@
+/*
+ * UpdatePublisher.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import tigase.iot.framework.devices.IValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Publisher of value updates shared by all example drivers.
+//
+// Drivers pass new values to this publisher instead of calling updateValue() directly. If publish window of the driver
+// is 0, value is passed to updateValue() immediately. Otherwise value is kept for up to `window` milliseconds and
+// published together with updates of other drivers collected in the meantime, or earlier if number of pending updates
+// reaches maximal batch size. If driver provides new value before previous one was published, only the newest value
+// is published.
+//
+// Listeners added to the publisher receive every value passed by the drivers, before it is delayed or coalesced, and
+// may consume it, so it is used only locally and not published at all (see AggregationSensor).
+//
+// Maximal batch size may be set using `tigase.iot.examples.publisher.maxBatchSize` system property.
+public class UpdatePublisher {
+
+	private static final Logger log = Logger.getLogger(UpdatePublisher.class.getCanonicalName());
+
+	private static UpdatePublisher instance = null;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final Object lock = new Object();
+	private final int maxBatchSize;
+	private final Map<Object, Update<?>> pending = new LinkedHashMap<>();
+	private long batches = 0;
+	private long coalesced = 0;
+	private long latencySum = 0;
+	private long maxBatch = 0;
+	private long maxLatency = 0;
+	private long nextFlush = Long.MAX_VALUE;
+	private long published = 0;
+	private Sink sink = new DirectSink();
+	private Thread thread = null;
+
+	public static synchronized UpdatePublisher getInstance() {
+		if (instance == null) {
+			instance = new UpdatePublisher(Integer.getInteger("tigase.iot.examples.publisher.maxBatchSize", 100));
+		}
+		return instance;
+	}
+
+	public UpdatePublisher(int maxBatchSize) {
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+	}
+
+	// Replaces the sink receiving published updates. Default sink passes values to updateValue() of the drivers.
+	public void setSink(Sink sink) {
+		synchronized (lock) {
+			this.sink = sink;
+		}
+	}
+
+	public Sink getSink() {
+		synchronized (lock) {
+			return sink;
+		}
+	}
+
+	// Returns true if values are passed directly to updateValue() of the drivers and there are no listeners, so
+	// drivers may call it themselves when values are not delayed.
+	public boolean isDirect() {
+		synchronized (lock) {
+			return sink instanceof DirectSink && listeners.isEmpty();
+		}
+	}
+
+	public void addListener(Listener listener) {
+		synchronized (lock) {
+			listeners.add(listener);
+		}
+	}
+
+	public void removeListener(Listener listener) {
+		synchronized (lock) {
+			listeners.remove(listener);
+		}
+	}
+
+	public <T extends IValue> void publish(Object source, T value, long window, Consumer<T> updateValue) {
+		if (!listeners.isEmpty() && notifyListeners(source, value)) {
+			return;
+		}
+		Update<T> update = new Update<>(source, value, updateValue);
+		if (window <= 0) {
+			deliver(Collections.singletonList(update));
+			return;
+		}
+		List<Update<?>> batch = null;
+		synchronized (lock) {
+			Update<?> previous = pending.put(source, update);
+			if (previous != null) {
+				coalesced++;
+				// update waits from the time first of coalesced values was provided
+				update.enqueued = previous.enqueued;
+				update.deadline = previous.deadline;
+			} else {
+				update.deadline = update.enqueued + TimeUnit.MILLISECONDS.toNanos(window);
+			}
+			if (pending.size() >= maxBatchSize) {
+				batch = takePending();
+			} else if (update.deadline < nextFlush) {
+				nextFlush = update.deadline;
+				if (thread == null) {
+					thread = new Thread(this::run, "update-publisher");
+					thread.setDaemon(true);
+					thread.start();
+				}
+				lock.notifyAll();
+			}
+		}
+		if (batch != null) {
+			deliver(batch);
+		}
+	}
+
+	public long getBatches() {
+		synchronized (lock) {
+			return batches;
+		}
+	}
+
+	public long getPublished() {
+		synchronized (lock) {
+			return published;
+		}
+	}
+
+	// Number of values replaced by newer values of the same driver before they were published.
+	public long getCoalesced() {
+		synchronized (lock) {
+			return coalesced;
+		}
+	}
+
+	public double getAverageBatchSize() {
+		synchronized (lock) {
+			return batches == 0 ? 0 : ((double) published) / batches;
+		}
+	}
+
+	public long getMaxBatchSize() {
+		synchronized (lock) {
+			return maxBatch;
+		}
+	}
+
+	// Average time (in milliseconds) for which updates were delayed before being published.
+	public double getAverageAddedLatency() {
+		synchronized (lock) {
+			return published == 0 ? 0 : latencySum / 1000000.0 / published;
+		}
+	}
+
+	public double getMaxAddedLatency() {
+		synchronized (lock) {
+			return maxLatency / 1000000.0;
+		}
+	}
+
+	// Returns true if value was consumed by any of the listeners.
+	private boolean notifyListeners(Object source, IValue value) {
+		boolean consumed = false;
+		for (Listener listener : listeners) {
+			try {
+				consumed |= listener.updated(source, value);
+			} catch (RuntimeException ex) {
+				log.log(Level.WARNING, "Listener could not process value of " + source, ex);
+			}
+		}
+		return consumed;
+	}
+
+	private void run() {
+		while (true) {
+			List<Update<?>> batch;
+			synchronized (lock) {
+				try {
+					long now;
+					while ((now = System.nanoTime()) < nextFlush) {
+						long wait = nextFlush == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(nextFlush - now) + 1;
+						lock.wait(wait);
+					}
+				} catch (InterruptedException ex) {
+					return;
+				}
+				batch = takePending();
+			}
+			deliver(batch);
+		}
+	}
+
+	private List<Update<?>> takePending() {
+		List<Update<?>> batch = new ArrayList<>(pending.values());
+		pending.clear();
+		nextFlush = Long.MAX_VALUE;
+		return batch;
+	}
+
+	private void deliver(List<Update<?>> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		long now = System.nanoTime();
+		Sink sink;
+		synchronized (lock) {
+			batches++;
+			published += batch.size();
+			maxBatch = Math.max(maxBatch, batch.size());
+			for (Update<?> update : batch) {
+				long latency = now - update.enqueued;
+				latencySum += latency;
+				maxLatency = Math.max(maxLatency, latency);
+			}
+			sink = this.sink;
+		}
+		try {
+			sink.publish(batch);
+		} catch (RuntimeException ex) {
+			log.log(Level.WARNING, "Could not publish batch of " + batch.size() + " updates", ex);
+		}
+	}
+
+	// Receives batches of updates to publish.
+	public interface Sink {
+
+		void publish(List<Update<?>> batch);
+	}
+
+	// Receives values passed by the drivers. Returns true if value should not be published.
+	public interface Listener {
+
+		boolean updated(Object source, IValue value);
+	}
+
+	// Sink passing each value to updateValue() of the driver.
+	public static class DirectSink
+			implements Sink {
+
+		@Override
+		public void publish(List<Update<?>> batch) {
+			for (Update<?> update : batch) {
+				try {
+					update.apply();
+				} catch (RuntimeException ex) {
+					log.log(Level.WARNING, "Could not update value of " + update.getSource(), ex);
+				}
+			}
+		}
+	}
+
+	public static class Update<T extends IValue> {
+
+		private final Object source;
+		private final Consumer<T> updateValue;
+		private final T value;
+		private long deadline;
+		private long enqueued = System.nanoTime();
+
+		Update(Object source, T value, Consumer<T> updateValue) {
+			this.source = source;
+			this.value = value;
+			this.updateValue = updateValue;
+		}
+
+		public Object getSource() {
+			return source;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		// Time (as returned by System.nanoTime()) when update was passed to the publisher.
+		public long getEnqueued() {
+			return enqueued;
+		}
+
+		Consumer<T> getUpdateValue() {
+			return updateValue;
+		}
+
+		// Passes value to updateValue() of the driver.
+		public void apply() {
+			updateValue.accept(value);
+		}
+	}
+}
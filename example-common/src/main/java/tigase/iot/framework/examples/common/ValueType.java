@@ -0,0 +1,142 @@
+/*
+ * ValueType.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.values.Humidity;
+import tigase.iot.framework.values.Light;
+import tigase.iot.framework.values.Movement;
+import tigase.iot.framework.values.Pressure;
+import tigase.iot.framework.values.Temperature;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+// Supported value types (from tigase.iot.framework.values package) with conversion from and to numeric values.
+//
+// Value type may be selected by the user in the driver configuration using one of the names of the device types:
+// "humidity", "light", "movement", "pressure" or "temperature".
+public enum ValueType {
+
+	HUMIDITY {
+		@Override
+		public IValue create(double value) {
+			return new Humidity(value);
+		}
+
+		@Override
+		public IValue create(double value, LocalDateTime timestamp) {
+			return new Humidity(value, timestamp);
+		}
+	},
+	LIGHT {
+		@Override
+		public IValue create(double value) {
+			return new Light((int) Math.round(value), Light.Unit.lm);
+		}
+
+		@Override
+		public IValue create(double value, LocalDateTime timestamp) {
+			return new Light((int) Math.round(value), Light.Unit.lm, timestamp);
+		}
+	},
+	MOVEMENT {
+		@Override
+		public IValue create(double value) {
+			return new Movement(value != 0);
+		}
+
+		@Override
+		public IValue create(double value, LocalDateTime timestamp) {
+			return new Movement(value != 0, timestamp);
+		}
+	},
+	PRESSURE {
+		@Override
+		public IValue create(double value) {
+			return new Pressure(value);
+		}
+
+		@Override
+		public IValue create(double value, LocalDateTime timestamp) {
+			return new Pressure(value, timestamp);
+		}
+	},
+	TEMPERATURE {
+		@Override
+		public IValue create(double value) {
+			return new Temperature(Temperature.Scale.CELSIUS, value);
+		}
+
+		@Override
+		public IValue create(double value, LocalDateTime timestamp) {
+			return new Temperature(Temperature.Scale.CELSIUS, value, timestamp);
+		}
+	};
+
+	// Returns type of the value or null if it is not one of the supported types.
+	public static ValueType of(IValue value) {
+		if (value instanceof Temperature) {
+			return TEMPERATURE;
+		}
+		if (value instanceof Humidity) {
+			return HUMIDITY;
+		}
+		if (value instanceof Light) {
+			return LIGHT;
+		}
+		if (value instanceof Movement) {
+			return MOVEMENT;
+		}
+		if (value instanceof Pressure) {
+			return PRESSURE;
+		}
+		return null;
+	}
+
+	public static ValueType parse(String name) {
+		return ValueType.valueOf(name.trim().toUpperCase());
+	}
+
+	// Converts value to number. Movement is represented as 1 (movement detected) or 0.
+	public static double toDouble(IValue value) {
+		Object v = value.getValue();
+		if (v instanceof Boolean) {
+			return ((Boolean) v) ? 1 : 0;
+		}
+		return ((Number) v).doubleValue();
+	}
+
+	public abstract IValue create(double value);
+
+	// Creates value measured at the given time.
+	public abstract IValue create(double value, LocalDateTime timestamp);
+
+	// Creates value with the timestamp in milliseconds since epoch (ie. sent by the script in a frame). Value without
+	// the timestamp (0) gets the current time.
+	public IValue create(double value, long timestamp) {
+		if (timestamp <= 0) {
+			return create(value);
+		}
+		return create(value, LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()));
+	}
+}
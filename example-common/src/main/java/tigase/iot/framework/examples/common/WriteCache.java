@@ -0,0 +1,77 @@
+/*
+ * WriteCache.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.common;
+
+import tigase.iot.framework.devices.IValue;
+
+import java.util.Objects;
+
+// Cache of the last state confirmed by the device, used to skip commands which would not change anything.
+//
+// Command setting the same value as the last confirmed state is redundant, unless the state was confirmed more than
+// `ttl` milliseconds ago - then it is written again to reassert the state of the device. State is unknown (and nothing
+// is skipped) from the time a command with a different value is started until it is confirmed, so commands which are
+// still in progress are taken into account. TTL of 0 or less disables the cache.
+public class WriteCache {
+
+	private final long ttl;
+	private long avoided = 0;
+	private Object confirmed = null;
+	private long confirmedAt = 0;
+	private IValue requested = null;
+
+	public WriteCache(long ttl) {
+		this.ttl = ttl;
+	}
+
+	// Returns true if command setting the value may be skipped. Otherwise value is recorded as requested and
+	// confirmed() or failed() should be called with the same instance when command is finished.
+	public synchronized boolean skip(IValue value) {
+		if (ttl > 0 && confirmed != null && Objects.equals(confirmed, value.getValue()) &&
+				System.currentTimeMillis() - confirmedAt < ttl) {
+			avoided++;
+			return true;
+		}
+		requested = value;
+		confirmed = null;
+		return false;
+	}
+
+	public synchronized void confirmed(IValue value) {
+		if (value == requested) {
+			requested = null;
+			confirmed = value.getValue();
+			confirmedAt = System.currentTimeMillis();
+		}
+	}
+
+	public synchronized void failed(IValue value) {
+		if (value == requested) {
+			requested = null;
+			confirmed = null;
+		}
+	}
+
+	// Returns number of skipped commands.
+	public synchronized long getAvoided() {
+		return avoided;
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * BusCoordinator.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Coordinates reads of sensors connected to the same bus.
+//
+// Instead of each sensor opening the bus and reading the device at its own time, sensors register their reads in the
+// coordinator of the bus. On each tick coordinator opens a single session and executes reads of all sensors which are
+// due back-to-back, so transactions do not contend and the bus is not left idle between them. Reads are aligned to
+// the multiple of their periods, so sensors with the same period are read in the same session. Data read from the
+// device is passed to the listener of the registration when the session is closed or, if there is no listener, kept
+// in the registration until it is taken by the sensor.
+//
+// Tick duration may be set using `tigase.iot.examples.bus.tick` system property (default 100 ms).
+public class BusCoordinator {
+
+	private static final Logger log = Logger.getLogger(BusCoordinator.class.getCanonicalName());
+
+	private static final Map<String, BusCoordinator> coordinators = new HashMap<>();
+
+	private final SensorBus bus;
+	private final AtomicLong errors = new AtomicLong();
+	private final String name;
+	private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+	private final AtomicLong sessionTime = new AtomicLong();
+	private final AtomicLong sessions = new AtomicLong();
+	private final long tick;
+	private final AtomicLong transactions = new AtomicLong();
+	private Thread thread = null;
+
+	// Returns coordinator of the bus with the name, ie. `i2c-1` (see SensorBus.create()).
+	public static BusCoordinator get(String name) {
+		synchronized (coordinators) {
+			return coordinators.computeIfAbsent(name, key -> new BusCoordinator(key, SensorBus.create(key),
+																				 Long.getLong(
+																						 "tigase.iot.examples.bus.tick",
+																						 100)));
+		}
+	}
+
+	public BusCoordinator(String name, SensorBus bus, long tick) {
+		this.name = name;
+		this.bus = bus;
+		this.tick = Math.max(1, tick);
+	}
+
+	public SensorBus getBus() {
+		return bus;
+	}
+
+	// Registers read of `length` bytes from the register of the device executed every `period` milliseconds.
+	public Registration register(int address, int register, int length, long period) {
+		return register(address, register, length, period, null);
+	}
+
+	// Registers read of the device, which results are passed to the listener by the thread of the coordinator.
+	public Registration register(int address, int register, int length, long period, ReadListener listener) {
+		Registration registration = new Registration(address, register, length, Math.max(tick, period), listener);
+		registration.nextRead = align(System.currentTimeMillis(), registration.period);
+		registrations.add(registration);
+		synchronized (this) {
+			if (thread == null) {
+				thread = new Thread(this::run, "bus-coordinator-" + name);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		return registration;
+	}
+
+	public long getSessions() {
+		return sessions.get();
+	}
+
+	public long getTransactions() {
+		return transactions.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	// Returns average duration of the bus session in milliseconds.
+	public double getAverageSessionTime() {
+		long sessions = this.sessions.get();
+		return sessions == 0 ? 0 : sessionTime.get() / 1000000.0 / sessions;
+	}
+
+	// Executes reads which are due at the time `now` in a single session of the bus. Returns number of reads.
+	public int poll(long now) {
+		int count = 0;
+		long start = System.nanoTime();
+		try {
+			for (Registration registration : registrations) {
+				if (registration.nextRead > now) {
+					continue;
+				}
+				registration.nextRead = Math.max(registration.nextRead + registration.period,
+												  align(now, registration.period));
+				if (count == 0) {
+					bus.open();
+				}
+				count++;
+				read(registration);
+			}
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Could not open bus " + name, ex);
+			errors.incrementAndGet();
+			return count;
+		} finally {
+			if (count > 0) {
+				bus.close();
+				sessions.incrementAndGet();
+				sessionTime.addAndGet(System.nanoTime() - start);
+				notifyListeners();
+			}
+		}
+		return count;
+	}
+
+	// Passes results of reads to listeners after the session is closed, so bus is not kept open while they are handled.
+	private void notifyListeners() {
+		for (Registration registration : registrations) {
+			if (registration.listener == null || !registration.isCompleted()) {
+				continue;
+			}
+			try {
+				registration.listener.completed(registration.take(), null);
+			} catch (IOException ex) {
+				registration.listener.completed(null, ex);
+			} catch (RuntimeException ex) {
+				log.log(Level.WARNING, "Could not handle data read from device " + registration.address, ex);
+			}
+		}
+	}
+
+	private void read(Registration registration) {
+		try {
+			byte[] data = new byte[registration.length];
+			int read = bus.read(registration.address, registration.register, data, 0, data.length);
+			transactions.incrementAndGet();
+			if (read != data.length) {
+				throw new IOException("Read " + read + " of " + data.length + " bytes from device " + registration.address);
+			}
+			registration.completed(data, null);
+		} catch (IOException ex) {
+			errors.incrementAndGet();
+			registration.completed(null, ex);
+		}
+	}
+
+	private void run() {
+		while (true) {
+			synchronized (this) {
+				if (registrations.isEmpty()) {
+					thread = null;
+					return;
+				}
+			}
+			long now = System.currentTimeMillis();
+			long next = align(now, tick);
+			LockSupport.parkNanos(this, (next - now) * 1000000);
+			poll(System.currentTimeMillis());
+		}
+	}
+
+	private static long align(long time, long period) {
+		return (time / period + 1) * period;
+	}
+
+	public interface ReadListener {
+
+		// Called with data read from the device or with the exception if read failed.
+		void completed(byte[] data, IOException error);
+	}
+
+	public class Registration {
+
+		private final int address;
+		private final int length;
+		private final ReadListener listener;
+		private final long period;
+		private final int register;
+		private byte[] data = null;
+		private IOException error = null;
+		private volatile long nextRead;
+
+		private Registration(int address, int register, int length, long period, ReadListener listener) {
+			this.address = address;
+			this.register = register;
+			this.length = length;
+			this.period = period;
+			this.listener = listener;
+		}
+
+		// Returns data read since the last call or null if there was no read. If read failed, exception is thrown.
+		public synchronized byte[] take() throws IOException {
+			IOException error = this.error;
+			byte[] data = this.data;
+			this.error = null;
+			this.data = null;
+			if (error != null) {
+				throw error;
+			}
+			return data;
+		}
+
+		public void cancel() {
+			registrations.remove(this);
+		}
+
+		private synchronized boolean isCompleted() {
+			return data != null || error != null;
+		}
+
+		private synchronized void completed(byte[] data, IOException error) {
+			this.data = data;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * EdgeRing.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Preallocated lock-free ring buffer of edges passed from threads handling interrupts to the thread of the driver.
+//
+// Edges are stored in primitive arrays allocated when buffer is created, so adding an edge does not allocate nor
+// lock. Buffer supports many producers and a single consumer. If buffer is full, new edges are dropped and counted.
+public class EdgeRing {
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final int mask;
+	// sequence number of the edge which may be written to the slot (or read from it when increased by 1)
+	private final AtomicLongArray sequences;
+	private final boolean[] states;
+	private final AtomicLong tail = new AtomicLong();
+	private final long[] times;
+	private long head = 0;
+	private volatile Thread waiting = null;
+
+	public EdgeRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		this.states = new boolean[size];
+		this.times = new long[size];
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	// Returns number of edges dropped as buffer was full.
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public boolean offer(boolean high, long time) {
+		long t;
+		int slot;
+		while (true) {
+			t = tail.get();
+			slot = (int) (t & mask);
+			long sequence = sequences.get(slot);
+			if (sequence < t) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			if (sequence == t && tail.compareAndSet(t, t + 1)) {
+				break;
+			}
+		}
+		states[slot] = high;
+		times[slot] = time;
+		sequences.set(slot, t + 1);
+		Thread consumer = waiting;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		return true;
+	}
+
+	// Passes all available edges to the listener and returns their number. May be called only by the consumer thread.
+	public int drain(EdgeSource.EdgeListener listener) {
+		int count = 0;
+		while (true) {
+			int slot = (int) (head & mask);
+			if (sequences.get(slot) != head + 1) {
+				return count;
+			}
+			boolean high = states[slot];
+			long time = times[slot];
+			sequences.set(slot, head + mask + 1);
+			head++;
+			count++;
+			listener.edge(high, time);
+		}
+	}
+
+	// Waits until edge is available but no longer than specified time. May be called only by the consumer thread.
+	public void await(long timeout, TimeUnit unit) {
+		waiting = Thread.currentThread();
+		try {
+			if (sequences.get((int) (head & mask)) != head + 1) {
+				LockSupport.parkNanos(this, unit.toNanos(timeout));
+			}
+		} finally {
+			waiting = null;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * EdgeSource.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+// Source of edges (changes of the state) of a digital input, ie. GPIO pin.
+public interface EdgeSource {
+
+	// Starts reporting edges to the listener. Listener may be called from the thread handling interrupts, so it
+	// should return as soon as possible.
+	void start(EdgeListener listener);
+
+	void stop();
+
+	// Returns current state of the input, called after the source is started to report its initial state.
+	boolean isHigh();
+
+	interface EdgeListener {
+
+		// Called on each change of the input state. Time is the value of System.nanoTime() when edge was detected.
+		void edge(boolean high, long time);
+	}
+}
@@ -24,6 +24,9 @@ import tigase.iot.framework.devices.AbstractSensor;
 import tigase.iot.framework.devices.IConfigurationAware;
 import tigase.iot.framework.devices.IExecutorDevice;
 import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.UpdatePublisher;
+import tigase.iot.framework.examples.common.WriteCache;
 import tigase.kernel.beans.config.ConfigField;
 
 public class ExampleDevice<T extends IValue>
@@ -40,6 +43,22 @@ public class ExampleDevice<T extends IValue>
 	// If your listener needs to react on change of this field value, please create a setter for this field.
 	@ConfigField(desc = "Some additional configuration option")
 	private Integer value = 12;
+	@ConfigField(desc = "Bean name")
+	private String name;
+
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
+
+	// Commands setting the same value as the last confirmed state of the device are skipped (see WriteCache), unless
+	// state was confirmed more than `writeCacheTtl` milliseconds ago.
+	@ConfigField(desc = "Time in milliseconds after which the same value is written to the device again (0 - always write)")
+	private Long writeCacheTtl = 0L;
+	private WriteCache writeCache = null;
 
 	public ExampleDevice() {
 		// Type and name variables need to be filled with device type id and corresponding device type name. Those can
@@ -58,24 +77,58 @@ public class ExampleDevice<T extends IValue>
 	@Override
 	public void initialize() {
 		super.initialize();
+		metrics.register(name);
 	}
 
 	@Override
 	public void beforeUnregister() {
+		metrics.unregister();
 		super.beforeUnregister();
 	}
 
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
+	public synchronized void setWriteCacheTtl(Long writeCacheTtl) {
+		this.writeCacheTtl = writeCacheTtl;
+		this.writeCache = null;
+	}
+
+	public synchronized WriteCache getWriteCache() {
+		if (writeCache == null) {
+			writeCache = new WriteCache(writeCacheTtl);
+		}
+		return writeCache;
+	}
+
 	@Override
 	public void setValue(T value) {
+		WriteCache writeCache = getWriteCache();
+		if (writeCache.skip(value)) {
+			// Device is already in the requested state, so hub is only notified that value was set.
+			metrics.writeAvoided();
+			publish(value);
+			return;
+		}
+		long start = System.nanoTime();
 		// here you should react on the value you received (paramter `value`) and using this value modify state of the
 		// physical device controlled by this driver
 		//
 		// If device state is changed properly call:
-		updateValue(value);
+		metrics.commandCompleted(start, true);
+		writeCache.confirmed(value);
+		publish(value);
 		// to notify hub that value was changed
 		//
-		// If it was not possible to change value of the physical device, then do nothing.
+		// If it was not possible to change value of the physical device, then call metrics.commandCompleted(start, false)
+		// and writeCache.failed(value) and do nothing else.
 		// If value was changed but adjustment of value was required, then call updateValue() and as a parameter pass
 		// actual value representing current device state.
 	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
+	}
 }
@@ -23,8 +23,15 @@ package tigase.iot.framework.examples.java;
 import tigase.iot.framework.devices.AbstractPeriodSensor;
 import tigase.iot.framework.devices.IConfigurationAware;
 import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.PollScheduler;
+import tigase.iot.framework.examples.common.UpdatePublisher;
 import tigase.kernel.beans.config.ConfigField;
 
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 // This class reads state of the sensor once every X milliseconds.
 //
 // T needs to be a class representing a value returned by this sensor. If should be one of the following list of classes
@@ -38,6 +45,8 @@ public class ExamplePeriodSensor<T extends IValue>
 		extends AbstractPeriodSensor<T>
 		implements IConfigurationAware {
 
+	private static final Logger log = Logger.getLogger(ExamplePeriodSensor.class.getCanonicalName());
+
 	// This is a configuration option supported by the driver. Its value may be changed during runtime by the user
 	// using remote client. You may have more than one configuration field. There is a support for fields of type:
 	// long/Long, int/Integer and String.
@@ -46,6 +55,46 @@ public class ExamplePeriodSensor<T extends IValue>
 	// is then a developers responsibility to update configuration field value.
 	@ConfigField(desc = "Some additional configuration option")
 	private Integer value = 12;
+	@ConfigField(desc = "Bean name")
+	private String name;
+
+	// Scheduling of reads. In "own" mode reads are scheduled by the framework separately for each sensor, while in
+	// "shared" mode they are executed by PollScheduler shared by all sensors, which aligns reads of sensors with
+	// compatible periods to the same tick. Number of concurrent reads of sensors in the same group (ie. connected to the
+	// same bus) may be then limited by the scheduler (see PollScheduler).
+	@ConfigField(desc = "Scheduling of reads (own or shared)")
+	private String scheduling = "own";
+	@ConfigField(desc = "Maximal delay in milliseconds added to the read time to spread reads in shared scheduling")
+	private Long jitter = 0L;
+	@ConfigField(desc = "Name of the group of sensors sharing limit of concurrent reads, ie. bus name")
+	private String readGroup = "default";
+	private boolean initialized = false;
+	private PollScheduler.Task sharedTask = null;
+	// Period of reads of the sensor. While the sensor is read by PollScheduler or by the bus coordinator, period of the
+	// framework is set to the largest value which does not overflow timers, so the framework does not wake up for each
+	// sensor only to have readValue() return null.
+	private long readPeriod = -1;
+
+	// Reads of devices connected to the bus. If bus is set, device is read by the BusCoordinator together with other
+	// sensors on the same bus and data read from the device is converted to the value by convert() and published right
+	// after the read, so neither the framework nor PollScheduler read the sensor.
+	@ConfigField(desc = "Bus to which device is connected, ie. i2c-1 or simulated (empty - not read by bus coordinator)")
+	private String bus = "";
+	@ConfigField(desc = "Address of the device on the bus")
+	private Integer busAddress = 0x23;
+	@ConfigField(desc = "Register of the device read by the bus coordinator")
+	private Integer busRegister = 0;
+	@ConfigField(desc = "Number of bytes read from the device by the bus coordinator")
+	private Integer busReadLength = 2;
+	private BusCoordinator.Registration busRegistration = null;
+
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
 
 	public ExamplePeriodSensor() {
 		// Type and name variables need to be filled with device type id and corresponding device type name. Those can
@@ -63,8 +112,103 @@ public class ExamplePeriodSensor<T extends IValue>
 		super(null, null, null, -1);
 	}
 
+	@Override
+	public void initialize() {
+		super.initialize();
+		metrics.register(name);
+		initialized = true;
+		updateScheduling();
+		updateBus();
+	}
+
+	@Override
+	public void beforeUnregister() {
+		initialized = false;
+		updateScheduling();
+		updateBus();
+		metrics.unregister();
+		super.beforeUnregister();
+	}
+
+	@Override
+	public void setPeriod(long period) {
+		synchronized (this) {
+			readPeriod = period;
+		}
+		updateScheduling();
+		updateBus();
+	}
+
+	public void setScheduling(String scheduling) {
+		this.scheduling = scheduling;
+		updateScheduling();
+	}
+
+	public void setJitter(Long jitter) {
+		this.jitter = jitter;
+		updateScheduling();
+	}
+
+	public void setReadGroup(String readGroup) {
+		this.readGroup = readGroup;
+		updateScheduling();
+	}
+
+	public void setBus(String bus) {
+		this.bus = bus;
+		updateBus();
+		updateScheduling();
+	}
+
+	public void setBusAddress(Integer busAddress) {
+		this.busAddress = busAddress;
+		updateBus();
+	}
+
+	public void setBusRegister(Integer busRegister) {
+		this.busRegister = busRegister;
+		updateBus();
+	}
+
+	public void setBusReadLength(Integer busReadLength) {
+		this.busReadLength = busReadLength;
+		updateBus();
+	}
+
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
 	@Override
 	protected T readValue() {
+		if (sharedTask != null || getBusRegistration() != null) {
+			// In "shared" scheduling reads are executed on ticks of PollScheduler (see readShared()) and devices on
+			// the bus are read by the bus coordinator (see busRead()).
+			return null;
+		}
+		T value = measuredRead();
+		if (value != null && (publishWindow > 0 || !UpdatePublisher.getInstance().isDirect())) {
+			// value will be published by UpdatePublisher (ie. stored in the journal while hub is disconnected)
+			publish(value);
+			return null;
+		}
+		return value;
+	}
+
+	// Executes read() updating metrics of the sensor.
+	private T measuredRead() {
+		long start = System.nanoTime();
+		try {
+			T value = read();
+			metrics.readCompleted(start, true);
+			return value;
+		} catch (RuntimeException ex) {
+			metrics.readCompleted(start, false);
+			throw ex;
+		}
+	}
+
+	protected T read() {
 		// Here you need to put your code used to read data from the sensors and wrap it in the class representing value
 		// returned by this sensor, for class name please check documentation of this class at the top of the class
 		// definition.
@@ -73,4 +217,80 @@ public class ExamplePeriodSensor<T extends IValue>
 		// as if the read from the sensors failed. Next attempt will occur normally.
 		return null;
 	}
+
+	// Converts data read from the device by the bus coordinator to the class representing value returned by this
+	// sensor.
+	protected T convert(byte[] data) {
+		return null;
+	}
+
+	// Called by the thread of the bus coordinator with data read from the device.
+	private void busRead(byte[] data, IOException error) {
+		long start = System.nanoTime();
+		if (error != null) {
+			metrics.readCompleted(start, false);
+			log.log(Level.FINE, "Could not read data from the device on bus " + bus, error);
+			return;
+		}
+		T value;
+		try {
+			value = convert(data);
+			metrics.readCompleted(start, true);
+		} catch (RuntimeException ex) {
+			metrics.readCompleted(start, false);
+			log.log(Level.WARNING, "Could not convert data read from the device on bus " + bus, ex);
+			return;
+		}
+		if (value != null) {
+			publish(value);
+		}
+	}
+
+	private void readShared() {
+		T value = measuredRead();
+		if (value != null) {
+			publish(value);
+		}
+	}
+
+	private synchronized void updateScheduling() {
+		if (sharedTask != null) {
+			sharedTask.cancel();
+			sharedTask = null;
+		}
+		if (initialized && "shared".equals(scheduling) && readPeriod > 0 && (bus == null || bus.isEmpty())) {
+			PollScheduler scheduler = PollScheduler.getInstance();
+			sharedTask = scheduler.schedule(readGroup + "@" + System.identityHashCode(this), readGroup, readPeriod,
+											jitter, this::readShared);
+		}
+		updateFrameworkPeriod();
+	}
+
+	private synchronized BusCoordinator.Registration getBusRegistration() {
+		return busRegistration;
+	}
+
+	private synchronized void updateBus() {
+		if (busRegistration != null) {
+			busRegistration.cancel();
+			busRegistration = null;
+		}
+		if (initialized && bus != null && !bus.isEmpty() && readPeriod > 0) {
+			busRegistration = BusCoordinator.get(bus)
+					.register(busAddress, busRegister, busReadLength, readPeriod, this::busRead);
+		}
+		updateFrameworkPeriod();
+	}
+
+	private void updateFrameworkPeriod() {
+		long period = sharedTask != null || busRegistration != null ? Integer.MAX_VALUE : readPeriod;
+		if (super.getPeriod() != period) {
+			super.setPeriod(period);
+		}
+	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
+	}
 }
@@ -23,6 +23,8 @@ package tigase.iot.framework.examples.java;
 import tigase.iot.framework.devices.AbstractSensor;
 import tigase.iot.framework.devices.IConfigurationAware;
 import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.UpdatePublisher;
 import tigase.kernel.beans.config.ConfigField;
 
 // T needs to be a class representing a value returned by this sensor. If should be one of the following list of classes
@@ -46,6 +48,16 @@ public class ExampleSensor<T extends IValue>
 	// If your listener needs to react on change of this field value, please create a setter for this field.
 	@ConfigField(desc = "Some additional configuration option")
 	private Integer value = 12;
+	@ConfigField(desc = "Bean name")
+	private String name;
+
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
 	
 	public ExampleSensor() {
 		// Type and name variables need to be filled with device type id and corresponding device type name. Those can
@@ -64,23 +76,35 @@ public class ExampleSensor<T extends IValue>
 	@Override
 	public void initialize() {
 		super.initialize();
+		metrics.register(name);
 		// here you should initialize your mechanism for listening on the events from the sensor.
 	}
 
 	@Override
 	public void beforeUnregister() {
 		// here you should deinitialize you mechanism for listening on the events from the sensor.
+		metrics.unregister();
 		super.beforeUnregister();
 	}
 
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
 	// This is a dummy method. It should be called by your code reacting on the call from the listener which you
 	// initialized in the initialize() method.
 	private void handleEvent() {
+		metrics.received();
 		// After you get value from the call please convert it to the class representing value returned by this sensor
 		// (for class name please check documentation of this class at the top of the class definition) and call
-		// updateValue() method passing newly read value.
+		// publish() method passing newly read value.
 		//
 		// null is not an acceptable value!
-		this.updateValue(null);
+		this.publish(null);
+	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
 	}
 }
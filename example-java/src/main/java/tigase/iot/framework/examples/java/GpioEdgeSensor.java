@@ -0,0 +1,298 @@
+/*
+ * GpioEdgeSensor.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+import tigase.iot.framework.devices.AbstractSensor;
+import tigase.iot.framework.devices.IConfigurationAware;
+import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.DriverStartup;
+import tigase.iot.framework.examples.common.UpdatePublisher;
+import tigase.iot.framework.examples.common.ValueType;
+import tigase.kernel.beans.config.ConfigField;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Sensor reporting state of a digital input (ie. motion or contact sensor connected to the GPIO pin) using
+// interrupts instead of periodic reads, so short pulses are not missed and no CPU is used while state is unchanged.
+//
+// Edges reported by the EdgeSource are passed through the preallocated EdgeRing to the thread of the driver, which
+// debounces them: new state is published only after input stayed in it for `debounce` milliseconds. With "mock"
+// source edges are generated by MockEdgeSource, so driver may be tested without hardware.
+//
+// T needs to be a class representing a value returned by this sensor, usually Movement. Other value types receive
+// 1 for high and 0 for low state of the input.
+public class GpioEdgeSensor<T extends IValue>
+		extends AbstractSensor<T>
+		implements IConfigurationAware {
+
+	private static final Logger log = Logger.getLogger(GpioEdgeSensor.class.getCanonicalName());
+
+	@ConfigField(desc = "Source of edges (pi4j or mock)")
+	private String source = "pi4j";
+	@ConfigField(desc = "Bean name")
+	private String name;
+	@ConfigField(desc = "GPIO pin number (Pi4J numbering)")
+	private Integer pin = 0;
+	@ConfigField(desc = "Pull resistor of the GPIO pin (off, up or down)")
+	private String pull = "off";
+	@ConfigField(desc = "Time in milliseconds for which state needs to be stable to be published (0 - no debouncing)")
+	private Long debounce = 20L;
+	@ConfigField(desc = "Number of edges kept in the buffer before they are processed")
+	private Integer bufferSize = 1024;
+	@ConfigField(desc = "Period in milliseconds between state changes of the mock source")
+	private Long mockPeriod = 1000L;
+	@ConfigField(desc = "Number of bounces before each state change of the mock source")
+	private Integer mockBounces = 3;
+	@ConfigField(desc = "Type of the value (humidity, light, movement, pressure or temperature)")
+	private String valueType = "movement";
+	private EdgeSource edgeSource = null;
+	private EdgeRing ring = null;
+	private Thread thread = null;
+
+	// Activation of the sensor during startup of the hub. In "eager" mode GPIO pin is opened when sensor is initialized,
+	// in "parallel" mode it is opened by the pool shared by all drivers and in "lazy" mode only when value of the sensor
+	// is read for the first time (see DriverStartup).
+	@ConfigField(desc = "Startup of the sensor (eager, parallel or lazy)")
+	private String startup = "eager";
+	private DriverStartup.Activation activation = null;
+	private boolean initialized = false;
+
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
+
+	public GpioEdgeSensor() {
+		// Type and name should match the configured value type, ie. type = "movement-sensor"; name = "Motion sensor";
+		super(null, null, null);
+	}
+
+	@Override
+	public void initialize() {
+		super.initialize();
+		metrics.register(name);
+		synchronized (this) {
+			initialized = true;
+		}
+		activation = DriverStartup.getInstance().start(metrics, startup, this::start);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		if (activation != null) {
+			activation.cancel();
+		}
+		synchronized (this) {
+			initialized = false;
+		}
+		stop();
+		metrics.unregister();
+		super.beforeUnregister();
+	}
+
+	public void setSource(String source) {
+		this.source = source;
+		restart();
+	}
+
+	public void setPin(Integer pin) {
+		this.pin = pin;
+		restart();
+	}
+
+	public void setPull(String pull) {
+		this.pull = pull;
+		restart();
+	}
+
+	public void setDebounce(Long debounce) {
+		this.debounce = debounce;
+		restart();
+	}
+
+	public void setBufferSize(Integer bufferSize) {
+		this.bufferSize = bufferSize;
+		restart();
+	}
+
+	public void setMockPeriod(Long mockPeriod) {
+		this.mockPeriod = mockPeriod;
+		restart();
+	}
+
+	public void setMockBounces(Integer mockBounces) {
+		this.mockBounces = mockBounces;
+		restart();
+	}
+
+	public void setValueType(String valueType) {
+		ValueType.parse(valueType);
+		this.valueType = valueType;
+	}
+
+	@Override
+	public T getValue() {
+		DriverStartup.Activation activation = this.activation;
+		if (activation != null) {
+			// in "lazy" mode GPIO pin is opened on the first read
+			activation.activate();
+		}
+		return super.getValue();
+	}
+
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
+	// Returns source of edges, ie. MockEdgeSource which may be used to trigger edges.
+	public synchronized EdgeSource getEdgeSource() {
+		return edgeSource;
+	}
+
+	// Returns number of edges dropped as they were not processed fast enough.
+	public synchronized long getDroppedEdges() {
+		return ring == null ? 0 : ring.getDropped();
+	}
+
+	private synchronized void start() {
+		if (!initialized || thread != null) {
+			// sensor was removed before it was activated
+			return;
+		}
+		EdgeRing ring = new EdgeRing(bufferSize);
+		this.ring = ring;
+		edgeSource = "mock".equals(source) ? new MockEdgeSource(mockPeriod, mockBounces) : new Pi4jEdgeSource(pin, pull);
+		// State of the input is published when the sensor is started, so it is known even if the input never changes.
+		// Edges received after the source was started are kept in the ring until the thread processes them.
+		Boolean initial = null;
+		try {
+			edgeSource.start(ring::offer);
+			initial = edgeSource.isHigh();
+		} catch (RuntimeException ex) {
+			log.log(Level.WARNING, "Could not start listening for edges of GPIO pin " + pin, ex);
+			metrics.error();
+		}
+		Boolean initialState = initial;
+		thread = new Thread(() -> processEdges(ring, initialState), "gpio-edge-sensor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private synchronized void stop() {
+		if (edgeSource != null) {
+			edgeSource.stop();
+			edgeSource = null;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		ring = null;
+	}
+
+	private synchronized void restart() {
+		if (thread != null) {
+			stop();
+			start();
+		}
+	}
+
+	// This method is executed by the thread of the driver and publishes debounced state of the input.
+	private void processEdges(EdgeRing ring, Boolean initialState) {
+		Debouncer debouncer = new Debouncer(TimeUnit.MILLISECONDS.toNanos(debounce));
+		if (initialState != null) {
+			debouncer.publishIfChanged(initialState);
+		}
+		while (!Thread.currentThread().isInterrupted()) {
+			ring.drain(debouncer);
+			long remaining = debouncer.check(System.nanoTime());
+			ring.await(remaining > 0 ? remaining : TimeUnit.SECONDS.toNanos(1), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void publishState(boolean high) {
+		try {
+			publish((T) ValueType.parse(valueType).create(high ? 1 : 0));
+		} catch (RuntimeException ex) {
+			log.log(Level.WARNING, "Could not publish state of GPIO pin " + pin, ex);
+			metrics.error();
+		}
+	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
+	}
+
+	private class Debouncer
+			implements EdgeSource.EdgeListener {
+
+		private final long debounce;
+		private boolean candidate = false;
+		private long candidateTime = 0;
+		private boolean pending = false;
+		private Boolean published = null;
+
+		private Debouncer(long debounce) {
+			this.debounce = debounce;
+		}
+
+		@Override
+		public void edge(boolean high, long time) {
+			metrics.received();
+			if (debounce == 0) {
+				publishIfChanged(high);
+			} else {
+				candidate = high;
+				candidateTime = time;
+				pending = true;
+			}
+		}
+
+		// Publishes state if it is stable. Returns time in nanoseconds after which state should be checked again or 0.
+		private long check(long now) {
+			if (!pending) {
+				return 0;
+			}
+			long remaining = candidateTime + debounce - now;
+			if (remaining > 0) {
+				return remaining;
+			}
+			pending = false;
+			publishIfChanged(candidate);
+			return 0;
+		}
+
+		private void publishIfChanged(boolean high) {
+			if (published == null || published != high) {
+				published = high;
+				publishState(high);
+			}
+		}
+	}
+}
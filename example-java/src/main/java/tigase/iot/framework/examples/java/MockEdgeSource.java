@@ -0,0 +1,95 @@
+/*
+ * MockEdgeSource.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Simulated digital input used to test GPIO drivers without hardware.
+//
+// State of the input is changed every `period` milliseconds (if period is greater than 0) and each change is
+// preceded by `bounces` short pulses simulating bouncing of a mechanical contact. Edges may be also triggered
+// manually with trigger().
+public class MockEdgeSource
+		implements EdgeSource {
+
+	private final int bounces;
+	private final long period;
+	private volatile EdgeListener listener = null;
+	private boolean state = false;
+	private Thread thread = null;
+
+	public MockEdgeSource(long period, int bounces) {
+		this.period = period;
+		this.bounces = bounces;
+	}
+
+	@Override
+	public synchronized void start(EdgeListener listener) {
+		this.listener = listener;
+		if (period > 0) {
+			thread = new Thread(this::run, "mock-edge-source");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		listener = null;
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isHigh() {
+		return state;
+	}
+
+	// Changes state of the input, reporting configured number of bounces before the final edge.
+	public synchronized void trigger(boolean high) {
+		EdgeListener listener = this.listener;
+		if (listener == null || high == state) {
+			return;
+		}
+		for (int i = 0; i < bounces; i++) {
+			listener.edge(high, System.nanoTime());
+			listener.edge(!high, System.nanoTime());
+		}
+		state = high;
+		listener.edge(high, System.nanoTime());
+	}
+
+	private void run() {
+		long next = System.nanoTime();
+		while (!Thread.currentThread().isInterrupted()) {
+			next += TimeUnit.MILLISECONDS.toNanos(period);
+			LockSupport.parkNanos(this, next - System.nanoTime());
+			boolean state;
+			synchronized (this) {
+				state = this.state;
+			}
+			trigger(!state);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Pi4jEdgeSource.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+
+// Reports edges of the GPIO pin using interrupts provided by Pi4J.
+//
+// Pin is addressed using Pi4J (WiringPi) numbering. Debouncing is done by the driver, so it works the same way for
+// all sources of edges.
+public class Pi4jEdgeSource
+		implements EdgeSource {
+
+	private final int address;
+	private final PinPullResistance pull;
+	private GpioPinDigitalInput input = null;
+
+	public Pi4jEdgeSource(int address, String pull) {
+		this.address = address;
+		switch (pull) {
+			case "up":
+				this.pull = PinPullResistance.PULL_UP;
+				break;
+			case "down":
+				this.pull = PinPullResistance.PULL_DOWN;
+				break;
+			default:
+				this.pull = PinPullResistance.OFF;
+				break;
+		}
+	}
+
+	@Override
+	public synchronized void start(EdgeListener listener) {
+		GpioController gpio = GpioFactory.getInstance();
+		input = gpio.provisionDigitalInputPin(RaspiPin.getPinByAddress(address), pull);
+		input.addListener((GpioPinListenerDigital) event -> listener.edge(event.getState().isHigh(), System.nanoTime()));
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (input != null) {
+			input.removeAllListeners();
+			GpioFactory.getInstance().unprovisionPin(input);
+			input = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isHigh() {
+		return input != null && input.isHigh();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Pi4jI2cBus.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+import com.pi4j.io.i2c.I2CFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// I2C bus accessed using Pi4J.
+public class Pi4jI2cBus
+		implements SensorBus {
+
+	private static final Logger log = Logger.getLogger(Pi4jI2cBus.class.getCanonicalName());
+
+	private final int busNumber;
+	private final Map<Integer, I2CDevice> devices = new HashMap<>();
+	private I2CBus bus = null;
+
+	public Pi4jI2cBus(int busNumber) {
+		this.busNumber = busNumber;
+	}
+
+	@Override
+	public void open() throws IOException {
+		try {
+			bus = I2CFactory.getInstance(busNumber);
+		} catch (I2CFactory.UnsupportedBusNumberException ex) {
+			throw new IOException("Unsupported I2C bus number: " + busNumber, ex);
+		}
+	}
+
+	@Override
+	public int read(int address, int register, byte[] buffer, int offset, int length) throws IOException {
+		I2CDevice device = devices.get(address);
+		if (device == null) {
+			device = bus.getDevice(address);
+			devices.put(address, device);
+		}
+		return device.read(register, buffer, offset, length);
+	}
+
+	@Override
+	public void close() {
+		if (bus != null) {
+			try {
+				bus.close();
+			} catch (IOException ex) {
+				log.log(Level.FINE, "Could not close I2C bus " + busNumber, ex);
+			}
+			bus = null;
+			devices.clear();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * SensorBus.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+import java.io.IOException;
+
+// Bus (ie. I2C) to which sensors are connected. Reads are executed within a session started with open() and finished
+// with close(), during which the bus is used exclusively.
+public interface SensorBus {
+
+	// Creates bus for the name used in the configuration: `i2c-<number>` for I2C bus accessed using Pi4J or
+	// `simulated` for SimulatedBus.
+	static SensorBus create(String name) {
+		if ("simulated".equals(name)) {
+			return new SimulatedBus(200, 100);
+		}
+		if (name.startsWith("i2c-")) {
+			return new Pi4jI2cBus(Integer.parseInt(name.substring(4)));
+		}
+		throw new IllegalArgumentException("Unsupported bus: " + name);
+	}
+
+	void open() throws IOException;
+
+	// Reads `length` bytes from the register of the device into the buffer. Returns number of bytes read.
+	int read(int address, int register, byte[] buffer, int offset, int length) throws IOException;
+
+	void close();
+}
@@ -0,0 +1,98 @@
+/*
+ * SimulatedBus.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.java;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Simulated bus used for testing and benchmarking without hardware.
+//
+// Like a real bus it may be used by a single session at a time. Opening a session and each transaction take
+// configured time. Data read from the device is a counter of reads of the device followed by its address and register.
+public class SimulatedBus
+		implements SensorBus {
+
+	private final AtomicLong contended = new AtomicLong();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final long openTime;
+	private final AtomicLong sessions = new AtomicLong();
+	private final long transactionTime;
+	private final AtomicLong transactions = new AtomicLong();
+
+	// Times are in microseconds.
+	public SimulatedBus(long openTime, long transactionTime) {
+		this.openTime = TimeUnit.MICROSECONDS.toNanos(openTime);
+		this.transactionTime = TimeUnit.MICROSECONDS.toNanos(transactionTime);
+	}
+
+	// Returns number of sessions which had to wait for the bus used by another session.
+	public long getContended() {
+		return contended.get();
+	}
+
+	public long getSessions() {
+		return sessions.get();
+	}
+
+	public long getTransactions() {
+		return transactions.get();
+	}
+
+	@Override
+	public void open() throws IOException {
+		if (!lock.tryLock()) {
+			contended.incrementAndGet();
+			lock.lock();
+		}
+		sessions.incrementAndGet();
+		busy(openTime);
+	}
+
+	@Override
+	public int read(int address, int register, byte[] buffer, int offset, int length) throws IOException {
+		if (!lock.isHeldByCurrentThread()) {
+			throw new IOException("Bus is not open");
+		}
+		long count = transactions.incrementAndGet();
+		busy(transactionTime);
+		for (int i = 0; i < length; i++) {
+			buffer[offset + i] = (byte) (i == 0 ? count : i == 1 ? address : register);
+		}
+		return length;
+	}
+
+	@Override
+	public void close() {
+		if (lock.isHeldByCurrentThread()) {
+			lock.unlock();
+		}
+	}
+
+	private static void busy(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end) {
+			LockSupport.parkNanos(end - System.nanoTime());
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Drivers.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.loadtest;
+
+import tigase.iot.framework.values.Temperature;
+
+import java.lang.reflect.Field;
+
+// Drivers used by the load test.
+//
+// Periodic sensors are read by the load test instead of the framework, so they expose poll() which executes a read
+// and publishes its value in the same way as the framework would do with the value returned by readValue().
+public class Drivers {
+
+	// Sets value of the configuration field of the driver in the same way as it is done by the kernel when there is
+	// no setter for the field.
+	public static void setConfigField(Object driver, String name, Object value) {
+		for (Class<?> cls = driver.getClass(); cls != null; cls = cls.getSuperclass()) {
+			try {
+				Field field = cls.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(driver, value);
+				return;
+			} catch (NoSuchFieldException ex) {
+				// field may be declared in the superclass
+			} catch (IllegalAccessException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+		throw new IllegalArgumentException("No field " + name + " in " + driver.getClass());
+	}
+
+	public interface Polled {
+
+		void poll();
+	}
+
+	// Python sensor executing fake read script.
+	public static class PythonPeriodSensor
+			extends tigase.iot.framework.examples.python.ExamplePeriodSensor<Temperature>
+			implements Polled {
+
+		@Override
+		public void poll() {
+			Temperature value = readValue();
+			if (value != null) {
+				// value returned by readValue() would be passed to updateValue() by the framework
+				publish(value);
+			}
+		}
+	}
+
+	// Java sensor reading simulated bus, converting the counter of reads to the temperature. Device is read by the bus
+	// coordinator, which passes data to the sensor, so it is not polled by the load test.
+	public static class BusSensor
+			extends tigase.iot.framework.examples.java.ExamplePeriodSensor<Temperature> {
+
+		@Override
+		protected Temperature convert(byte[] data) {
+			return new Temperature(Temperature.Scale.CELSIUS, 20 + (data[0] & 0x0f) / 10.0);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * FakeScripts.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+// Fake scripts executed by the python drivers instead of scripts reading real sensors.
+//
+// By default scripts are executed by `sh`, so load test may be executed without python. If python interpreter is
+// set, equivalent python scripts are used instead (which is required by `fork` mode). Scripts implement the same
+// protocol as `tigase_iot_worker.py` helper and always return the same value:
+// - read script prints the value (or the value followed by an empty line for each request in worker mode),
+// - stream script prints the value every N seconds, where N is passed as the argument,
+// - device script exits with code 0 (or responds with an empty line to each command in channel mode).
+public class FakeScripts {
+
+	public static final String SHELL = "sh";
+
+	private static final String SH_READ = "if [ \"$1\" = \"--worker\" ]; then\n" +
+			"  while read -r line; do echo 21.5; echo; done\n" + "else\n" + "  echo 21.5\n" + "fi\n";
+	private static final String SH_STREAM = "while true; do echo 21.5; sleep \"$1\"; done\n";
+	private static final String SH_DEVICE = "if [ \"$1\" = \"--worker\" ]; then\n" +
+			"  while read -r line; do echo; done\n" + "fi\n";
+
+	private static final String PY_READ = "import sys\n" + "if sys.argv[1:2] == [\"--worker\"]:\n" +
+			"    for line in sys.stdin:\n" + "        sys.stdout.write(\"21.5\\n\\n\")\n" +
+			"        sys.stdout.flush()\n" + "else:\n" + "    print(21.5)\n";
+	private static final String PY_STREAM = "import sys, time\n" + "while True:\n" + "    print(21.5)\n" +
+			"    sys.stdout.flush()\n" + "    time.sleep(float(sys.argv[1]))\n";
+	private static final String PY_DEVICE = "import sys\n" + "if sys.argv[1:2] == [\"--worker\"]:\n" +
+			"    for line in sys.stdin:\n" + "        sys.stdout.write(\"\\n\")\n" + "        sys.stdout.flush()\n";
+
+	private final File dir;
+	private final String interpreter;
+	private final File deviceScript;
+	private final File readScript;
+	private final File streamScript;
+
+	// Creates scripts for the interpreter, which is either `sh` or python interpreter.
+	public static FakeScripts create(String interpreter) throws IOException {
+		return new FakeScripts(Files.createTempDirectory("iot-loadtest").toFile(), interpreter);
+	}
+
+	private FakeScripts(File dir, String interpreter) throws IOException {
+		this.dir = dir;
+		this.interpreter = interpreter;
+		boolean shell = SHELL.equals(interpreter);
+		this.readScript = write(shell ? "read.sh" : "read.py", shell ? SH_READ : PY_READ);
+		this.streamScript = write(shell ? "stream.sh" : "stream.py", shell ? SH_STREAM : PY_STREAM);
+		this.deviceScript = write(shell ? "device.sh" : "device.py", shell ? SH_DEVICE : PY_DEVICE);
+	}
+
+	public String getInterpreter() {
+		return interpreter;
+	}
+
+	public String getReadScript() {
+		return readScript.getAbsolutePath();
+	}
+
+	public String getStreamScript() {
+		return streamScript.getAbsolutePath();
+	}
+
+	public String getDeviceScript() {
+		return deviceScript.getAbsolutePath();
+	}
+
+	public void delete() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
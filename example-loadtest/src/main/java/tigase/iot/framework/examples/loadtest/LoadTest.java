@@ -0,0 +1,365 @@
+/*
+ * LoadTest.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.loadtest;
+
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.DriverStartup;
+import tigase.iot.framework.examples.common.ExecutionLanes;
+import tigase.iot.framework.examples.common.LatencyHistogram;
+import tigase.iot.framework.examples.common.UpdatePublisher;
+import tigase.iot.framework.examples.java.GpioEdgeSensor;
+import tigase.iot.framework.examples.python.ExampleDevice;
+import tigase.iot.framework.examples.python.ExampleSensor;
+import tigase.iot.framework.values.Light;
+import tigase.iot.framework.values.Movement;
+import tigase.iot.framework.values.Temperature;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load test of the example drivers.
+//
+// Creates configured number of drivers with fake scripts (see FakeScripts) and synthetic sources of values (simulated
+// bus and mock GPIO edges), which publish their values to the StandInHub instead of the XMPP server, so it may be
+// executed offline on the target device. Periodic sensors are read by a scheduler with a fixed number of threads,
+// as it is done by the framework, unless `scheduling` is set to "shared".
+//
+// Every `report` seconds it prints number of updates per second received by the hub, percentiles of publish latency,
+// number of threads and used heap. After `duration` seconds it prints summary including number of threads and heap
+// used per driver. Values recorded during `warmup` seconds are not included in the summary.
+//
+// Options are passed as `--name=value` arguments, `--help` prints the list of options with default values.
+public class LoadTest {
+
+	private static final Map<String, String[]> OPTIONS = new LinkedHashMap<>();
+
+	static {
+		option("stream-sensors", "100", "Number of python sensors streaming values (ExampleSensor)");
+		option("period-sensors", "100", "Number of python periodic sensors (ExamplePeriodSensor)");
+		option("bus-sensors", "100", "Number of java periodic sensors reading simulated bus");
+		option("edge-sensors", "10", "Number of GPIO edge sensors using mock source");
+		option("devices", "20", "Number of python devices (ExampleDevice)");
+		option("period", "1000", "Period in milliseconds of reads of sensors and values of streaming sensors");
+		option("command-period", "5000", "Period in milliseconds between commands sent to each device");
+		option("mode", "spawn", "Execution mode of python periodic sensors (spawn, worker or fork)");
+		option("reader", "thread", "Reader of output of streaming sensors (thread or shared)");
+		option("device-mode", "spawn", "Execution mode of python devices (spawn, channel or fork)");
+		option("startup", "eager", "Startup of streaming and edge sensors (eager, parallel or lazy)");
+		option("scheduling", "own", "Scheduling of periodic sensors (own or shared)");
+		option("publish-window", "0", "Publish window of drivers in milliseconds");
+		option("python", "", "Python interpreter used to execute fake scripts (empty - scripts are executed by sh)");
+		option("scheduler-threads", "4", "Number of threads reading periodic sensors in own scheduling");
+		option("max-processes", "0", "Maximal number of concurrently executed scripts (0 - default of ExecutionLanes)");
+		option("round-trip", "0", "Time in microseconds for which hub processes each batch of updates");
+		option("warmup", "10", "Time in seconds after which measurement starts");
+		option("duration", "60", "Time in seconds of the measurement");
+		option("report", "10", "Time in seconds between reports");
+	}
+
+	private final List<Object> drivers = new ArrayList<>();
+	private final LongAdder errors = new LongAdder();
+	private final StandInHub hub;
+	private final Map<String, String> options;
+	private final List<Drivers.Polled> polled = new ArrayList<>();
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final FakeScripts scripts;
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>();
+		OPTIONS.forEach((name, option) -> options.put(name, option[0]));
+		for (String arg : args) {
+			if ("--help".equals(arg) || !arg.startsWith("--") || !arg.contains("=") ||
+					!OPTIONS.containsKey(arg.substring(2, arg.indexOf('=')))) {
+				printUsage();
+				System.exit("--help".equals(arg) ? 0 : 1);
+			}
+			options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+		new LoadTest(options).run();
+		System.exit(0);
+	}
+
+	private static void option(String name, String defaultValue, String description) {
+		OPTIONS.put(name, new String[]{defaultValue, description});
+	}
+
+	private static void printUsage() {
+		System.out.println("Options:");
+		OPTIONS.forEach((name, option) -> System.out.printf("  --%s=<value>%n      %s (default: %s)%n", name,
+																option[1], option[0]));
+	}
+
+	public LoadTest(Map<String, String> options) throws IOException {
+		this.options = options;
+		if (getLong("max-processes") > 0) {
+			System.setProperty("tigase.iot.examples.lanes.maxProcesses", options.get("max-processes"));
+		}
+		this.hub = new StandInHub(getLong("round-trip"));
+		String python = options.get("python");
+		this.scripts = FakeScripts.create(python.isEmpty() ? FakeScripts.SHELL : python);
+		AtomicInteger threads = new AtomicInteger();
+		this.scheduler = new ScheduledThreadPoolExecutor((int) getLong("scheduler-threads"), r -> {
+			Thread thread = new Thread(r, "loadtest-scheduler-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void run() throws InterruptedException {
+		long baselineHeap = usedHeap();
+		int baselineThreads = threadCount();
+
+		UpdatePublisher.getInstance().setSink(hub);
+		long startupStart = System.nanoTime();
+		createDrivers();
+		long initialized = System.nanoTime();
+		while (DriverStartup.getInstance().getPending() > 0) {
+			TimeUnit.MILLISECONDS.sleep(1);
+		}
+		long activated = System.nanoTime();
+		System.out.printf("Initialized %d drivers in %.1f ms, activated in %.1f ms (%s startup)%n", drivers.size(),
+						  (initialized - startupStart) / 1000000.0, (activated - startupStart) / 1000000.0,
+						  options.get("startup"));
+		activateLazy();
+		schedule();
+		System.out.printf("Warming up for %d s%n", getLong("warmup"));
+		TimeUnit.SECONDS.sleep(getLong("warmup"));
+
+		hub.reset();
+		hub.takeInterval();
+		long start = System.nanoTime();
+		long startUpdates = hub.getUpdates();
+		long reportEnd = start;
+		long lastUpdates = startUpdates;
+		long end = start + TimeUnit.SECONDS.toNanos(getLong("duration"));
+		System.out.println("    time   updates/s    p50 ms    p99 ms    max ms   threads   heap MB");
+		while (reportEnd < end) {
+			long reportStart = reportEnd;
+			reportEnd = Math.min(end, reportEnd + TimeUnit.SECONDS.toNanos(getLong("report")));
+			TimeUnit.NANOSECONDS.sleep(reportEnd - System.nanoTime());
+			long updates = hub.getUpdates();
+			LatencyHistogram latency = hub.takeInterval();
+			System.out.printf("%7ds %11.1f %9.2f %9.2f %9.2f %9d %9.1f%n",
+							  TimeUnit.NANOSECONDS.toSeconds(reportEnd - start),
+							  rate(updates - lastUpdates, reportEnd - reportStart), latency.getPercentile(50),
+							  latency.getPercentile(99), latency.getMax(), threadCount(),
+							  ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576.0);
+			lastUpdates = updates;
+		}
+		long updates = hub.getUpdates() - startUpdates;
+		long elapsed = System.nanoTime() - start;
+		long heap = usedHeap() - baselineHeap;
+		int threads = threadCount() - baselineThreads;
+		printSummary(updates, elapsed, heap, threads);
+
+		scheduler.shutdownNow();
+		stopDrivers();
+		scripts.delete();
+	}
+
+	private void createDrivers() {
+		long period = getLong("period");
+		long publishWindow = getLong("publish-window");
+		String scheduling = options.get("scheduling");
+		for (int i = 0; i < getLong("stream-sensors"); i++) {
+			ExampleSensor<Temperature> sensor = new ExampleSensor<>();
+			Drivers.setConfigField(sensor, "interpreter", scripts.getInterpreter());
+			Drivers.setConfigField(sensor, "reader", options.get("reader"));
+			Drivers.setConfigField(sensor, "publishWindow", publishWindow);
+			sensor.setScript(scripts.getStreamScript());
+			// parameter of the stream script is the interval between values in seconds
+			sensor.setParameter(Double.toString(period / 1000.0));
+			sensor.setFormat("plain");
+			sensor.setValueType("temperature");
+			Drivers.setConfigField(sensor, "startup", options.get("startup"));
+			add(sensor, sensor::initialize);
+		}
+		for (int i = 0; i < getLong("period-sensors"); i++) {
+			Drivers.PythonPeriodSensor sensor = new Drivers.PythonPeriodSensor();
+			Drivers.setConfigField(sensor, "script", scripts.getReadScript());
+			Drivers.setConfigField(sensor, "publishWindow", publishWindow);
+			sensor.setInterpreter(scripts.getInterpreter());
+			sensor.setMode(options.get("mode"));
+			sensor.setFormat("plain");
+			sensor.setValueType("temperature");
+			sensor.setScheduling(scheduling);
+			sensor.setPeriod(period);
+			add(sensor, sensor::initialize);
+		}
+		for (int i = 0; i < getLong("bus-sensors"); i++) {
+			Drivers.BusSensor sensor = new Drivers.BusSensor();
+			Drivers.setConfigField(sensor, "publishWindow", publishWindow);
+			// addresses from 0x08 to 0x77 are available for devices, so registers are used to distinguish sensors
+			sensor.setBusAddress(0x08 + i % 112);
+			sensor.setBusRegister(i / 112);
+			sensor.setBus("simulated");
+			sensor.setScheduling(scheduling);
+			sensor.setPeriod(period);
+			add(sensor, sensor::initialize);
+		}
+		for (int i = 0; i < getLong("edge-sensors"); i++) {
+			GpioEdgeSensor<Movement> sensor = new GpioEdgeSensor<>();
+			Drivers.setConfigField(sensor, "publishWindow", publishWindow);
+			sensor.setSource("mock");
+			sensor.setMockPeriod(period);
+			sensor.setValueType("movement");
+			Drivers.setConfigField(sensor, "startup", options.get("startup"));
+			add(sensor, sensor::initialize);
+		}
+		for (int i = 0; i < getLong("devices"); i++) {
+			ExampleDevice<Light> device = new ExampleDevice<>();
+			Drivers.setConfigField(device, "script", scripts.getDeviceScript());
+			Drivers.setConfigField(device, "publishWindow", publishWindow);
+			device.setInterpreter(scripts.getInterpreter());
+			device.setMode(options.get("device-mode"));
+			add(device, device::initialize);
+		}
+	}
+
+	private void add(Object driver, Runnable initialize) {
+		initialize.run();
+		drivers.add(driver);
+		if (driver instanceof Drivers.Polled && !"shared".equals(options.get("scheduling"))) {
+			polled.add((Drivers.Polled) driver);
+		}
+	}
+
+	// Reads values of sensors as clients would do after the startup, which activates lazy sensors.
+	private void activateLazy() {
+		for (Object driver : drivers) {
+			if (driver instanceof ExampleSensor) {
+				((ExampleSensor<?>) driver).getValue();
+			} else if (driver instanceof GpioEdgeSensor) {
+				((GpioEdgeSensor<?>) driver).getValue();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void schedule() {
+		long period = getLong("period");
+		for (Drivers.Polled sensor : polled) {
+			scheduler.scheduleAtFixedRate(() -> execute(sensor::poll), ThreadLocalRandom.current().nextLong(period),
+										  period, TimeUnit.MILLISECONDS);
+		}
+		long commandPeriod = getLong("command-period");
+		for (Object driver : drivers) {
+			if (driver instanceof ExampleDevice) {
+				ExampleDevice<Light> device = (ExampleDevice<Light>) driver;
+				AtomicInteger value = new AtomicInteger();
+				scheduler.scheduleAtFixedRate(
+						() -> execute(() -> device.setValue(new Light(value.incrementAndGet() % 100, Light.Unit.procent))),
+						ThreadLocalRandom.current().nextLong(commandPeriod), commandPeriod, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	// Exceptions would cancel execution of the periodic task, so they are only counted.
+	private void execute(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException ex) {
+			errors.increment();
+		}
+	}
+
+	private void stopDrivers() {
+		for (Object driver : drivers) {
+			try {
+				if (driver instanceof ExampleSensor) {
+					((ExampleSensor<?>) driver).beforeUnregister();
+				} else if (driver instanceof Drivers.PythonPeriodSensor) {
+					((Drivers.PythonPeriodSensor) driver).beforeUnregister();
+				} else if (driver instanceof Drivers.BusSensor) {
+					((Drivers.BusSensor) driver).beforeUnregister();
+				} else if (driver instanceof GpioEdgeSensor) {
+					((GpioEdgeSensor<?>) driver).beforeUnregister();
+				} else if (driver instanceof ExampleDevice) {
+					((ExampleDevice<?>) driver).beforeUnregister();
+				}
+			} catch (RuntimeException ex) {
+				errors.increment();
+			}
+		}
+	}
+
+	private void printSummary(long updates, long elapsed, long heap, int threads) {
+		LatencyHistogram latency = hub.getTotal();
+		long spawns = 0;
+		long driverErrors = 0;
+		long timeouts = 0;
+		for (DriverMetrics metrics : DriverMetrics.getAll()) {
+			spawns += metrics.getSpawns();
+			driverErrors += metrics.getErrors() + metrics.getReadErrors() + metrics.getCommandErrors();
+			timeouts += metrics.getTimeouts();
+		}
+		int count = Math.max(1, drivers.size());
+		System.out.println();
+		System.out.printf("Summary of %d s after %d s of warm up%n", TimeUnit.NANOSECONDS.toSeconds(elapsed),
+						  getLong("warmup"));
+		System.out.printf("  drivers:           %d (%d stream, %d period, %d bus, %d edge sensors, %d devices)%n",
+						  drivers.size(), getLong("stream-sensors"), getLong("period-sensors"),
+						  getLong("bus-sensors"), getLong("edge-sensors"), getLong("devices"));
+		System.out.printf("  updates:           %.1f/s (%d nodes, %.1f KB/s of stanzas)%n", rate(updates, elapsed),
+						  hub.getNodes(), rate(hub.getBytes(), elapsed) / 1024);
+		System.out.printf("  publish latency:   p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+						  latency.getPercentile(50), latency.getPercentile(90), latency.getPercentile(99),
+						  latency.getPercentile(99.9), latency.getMax());
+		System.out.printf("  threads:           %d (%.2f per driver)%n", threads, ((double) threads) / count);
+		System.out.printf("  heap:              %.1f MB (%.1f KB per driver)%n", heap / 1048576.0,
+						  heap / 1024.0 / count);
+		System.out.printf("  processes spawned: %d, driver errors: %d, timeouts: %d, scheduler errors: %d%n", spawns,
+						  driverErrors, timeouts, errors.sum());
+		for (ExecutionLanes.Lane lane : ExecutionLanes.getInstance().getLanes()) {
+			System.out.printf("  %-8s lane:     %d executed, wait p50 %.2f ms, p99 %.2f ms, max %.2f ms, max queued %d%n",
+							  lane.getName(), lane.getExecuted(), lane.getWaitP50(), lane.getWaitP99(),
+							  lane.getWaitMax(), lane.getMaxQueued());
+		}
+	}
+
+	private long getLong(String option) {
+		return Long.parseLong(options.get(option));
+	}
+
+	private static double rate(long count, long nanos) {
+		return nanos <= 0 ? 0 : count * 1e9 / nanos;
+	}
+
+	private static int threadCount() {
+		return ManagementFactory.getThreadMXBean().getThreadCount();
+	}
+
+	// Returns heap used after garbage collection.
+	private static long usedHeap() {
+		System.gc();
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * StandInHub.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.loadtest;
+
+import tigase.iot.framework.examples.common.LatencyHistogram;
+import tigase.iot.framework.examples.common.UpdatePublisher;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// In-process stand-in for the XMPP/pubsub endpoint to which the runtime publishes values of the drivers.
+//
+// Updates published by the drivers (through UpdatePublisher) are serialized to pubsub publish stanzas and written to
+// a single connection, as it is done by the runtime, but instead of being sent to the server, each batch waits for
+// `roundTrip` microseconds simulating network and server processing. Last item of each node is kept, as it would be
+// by the pubsub service.
+//
+// Latency of each update is measured from the time it was passed to UpdatePublisher by the driver to the time
+// its batch was accepted by the hub.
+public class StandInHub
+		implements UpdatePublisher.Sink {
+
+	private final LongAdder bytes = new LongAdder();
+	private final Map<Object, String> items = new ConcurrentHashMap<>();
+	private final Object connection = new Object();
+	private final long roundTrip;
+	private final LongAdder updates = new LongAdder();
+	private volatile LatencyHistogram interval = new LatencyHistogram();
+	private volatile LatencyHistogram total = new LatencyHistogram();
+	private long stanzaId = 0;
+
+	// Round trip time is in microseconds.
+	public StandInHub(long roundTrip) {
+		this.roundTrip = TimeUnit.MICROSECONDS.toNanos(roundTrip);
+	}
+
+	@Override
+	public void publish(List<UpdatePublisher.Update<?>> batch) {
+		synchronized (connection) {
+			for (UpdatePublisher.Update<?> update : batch) {
+				String stanza = toStanza(++stanzaId, update);
+				bytes.add(stanza.length());
+				items.put(update.getSource(), stanza);
+			}
+			if (roundTrip > 0) {
+				LockSupport.parkNanos(roundTrip);
+			}
+		}
+		LatencyHistogram interval = this.interval;
+		LatencyHistogram total = this.total;
+		long now = System.nanoTime();
+		for (UpdatePublisher.Update<?> update : batch) {
+			interval.record(now - update.getEnqueued(), TimeUnit.NANOSECONDS);
+			total.record(now - update.getEnqueued(), TimeUnit.NANOSECONDS);
+		}
+		updates.add(batch.size());
+	}
+
+	public long getUpdates() {
+		return updates.sum();
+	}
+
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	// Returns number of nodes to which at least one item was published.
+	public int getNodes() {
+		return items.size();
+	}
+
+	// Returns latencies recorded since the previous call (or reset()) and starts recording new ones.
+	public LatencyHistogram takeInterval() {
+		LatencyHistogram interval = this.interval;
+		this.interval = new LatencyHistogram();
+		return interval;
+	}
+
+	// Returns latencies recorded since reset().
+	public LatencyHistogram getTotal() {
+		return total;
+	}
+
+	// Drops recorded latencies, ie. recorded during warm up.
+	public void reset() {
+		this.interval = new LatencyHistogram();
+		this.total = new LatencyHistogram();
+	}
+
+	private static String toStanza(long id, UpdatePublisher.Update<?> update) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("<iq type=\"set\" id=\"").append(id).append("\" to=\"pubsub.hub.local\">");
+		sb.append("<pubsub xmlns=\"http://jabber.org/protocol/pubsub\"><publish node=\"devices/");
+		sb.append(update.getSource().getClass().getSimpleName()).append('-');
+		sb.append(Integer.toHexString(System.identityHashCode(update.getSource())));
+		sb.append("/state\"><item><value timestamp=\"").append(update.getValue().getTimestamp());
+		sb.append("\">").append(update.getValue().getValue()).append("</value></item></publish></pubsub></iq>");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,150 @@
+#
+# tigase_iot_frames.py
+#
+# Tigase IoT Framework - Examples
+# Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+#
+# This program is free software: you can redistribute it and/or modify
+# it under the terms of the GNU Affero General Public License as published by
+# the Free Software Foundation, either version 3 of the License,
+# or (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU Affero General Public License for more details.
+#
+# You should have received a copy of the GNU Affero General Public License
+# along with this program. Look for COPYING file in the top folder.
+# If not, see http://www.gnu.org/licenses/.
+#
+
+# Binary framing protocol used by the example drivers with `protocol` set to "binary".
+#
+# Each frame starts with a 4 byte length of the rest of the frame, followed by 1 byte frame type, 8 byte timestamp
+# (milliseconds since epoch) and payload. All numbers are big-endian.
+#
+# Streaming sensor script may send values using:
+#
+#   import tigase_iot_frames
+#
+#   while True:
+#       tigase_iot_frames.write_value(read_temperature())
+#
+# Scripts executed by periodic sensors and devices should use run() in the same way as tigase_iot_worker.run(). Value
+# returned by the function is sent to the driver, for devices function receives value to set as the last argument.
+
+import struct
+import sys
+import time
+import traceback
+
+DOUBLE = 0x01
+LONG = 0x02
+BOOLEAN = 0x03
+DOUBLES = 0x04
+REQUEST = 0x20
+COMMAND = 0x21
+CONTROL = 0x22
+ACK = 0x30
+ERROR = 0x31
+
+_HEADER = struct.Struct(">iBq")
+_DOUBLE = struct.Struct(">d")
+_LONG = struct.Struct(">q")
+
+# Python 2 has separate type for big integers, stdin and stdout are already binary streams there
+_INTEGERS = (int, long) if sys.version_info[0] < 3 else (int,)
+
+
+def write_frame(frame_type, payload=b"", timestamp=None, out=None):
+    out = out or getattr(sys.stdout, 'buffer', sys.stdout)
+    if timestamp is None:
+        timestamp = int(time.time() * 1000)
+    out.write(_HEADER.pack(9 + len(payload), frame_type, timestamp) + payload)
+    out.flush()
+
+
+def write_value(value, timestamp=None, out=None):
+    if isinstance(value, bool):
+        write_frame(BOOLEAN, b"\x01" if value else b"\x00", timestamp, out)
+    elif isinstance(value, _INTEGERS):
+        write_frame(LONG, _LONG.pack(value), timestamp, out)
+    elif isinstance(value, (list, tuple)):
+        write_frame(DOUBLES, struct.pack(">%dd" % len(value), *value), timestamp, out)
+    else:
+        write_frame(DOUBLE, _DOUBLE.pack(float(value)), timestamp, out)
+
+
+def write_error(message, out=None):
+    write_frame(ERROR, str(message).encode("utf-8"), out=out)
+
+
+def _read_exactly(inp, size):
+    data = b""
+    while len(data) < size:
+        chunk = inp.read(size - len(data))
+        if not chunk:
+            return None
+        data += chunk
+    return data
+
+
+def read_frame(inp=None):
+    """Returns tuple (type, timestamp, payload) or None at the end of stream."""
+    inp = inp or getattr(sys.stdin, 'buffer', sys.stdin)
+    header = _read_exactly(inp, _HEADER.size)
+    if header is None:
+        return None
+    length, frame_type, timestamp = _HEADER.unpack(header)
+    payload = _read_exactly(inp, length - 9) if length > 9 else b""
+    return frame_type, timestamp, payload
+
+
+def _args(payload):
+    text = payload.decode("utf-8")
+    return text.split("\t") if text else []
+
+
+def read_controls(inp=None):
+    """Yields lists [name, value] with new values of parameters sent by the driver."""
+    while True:
+        frame = read_frame(inp)
+        if frame is None:
+            return
+        frame_type, timestamp, payload = frame
+        if frame_type == CONTROL:
+            yield payload.decode("utf-8").split("\t", 1)
+
+
+def serve(handler, inp=None, out=None):
+    while True:
+        frame = read_frame(inp)
+        if frame is None:
+            return
+        frame_type, timestamp, payload = frame
+        try:
+            if frame_type == COMMAND:
+                # value is also passed as the last of the arguments, the same way as in text protocol
+                handler(_args(payload[8:]))
+                write_frame(ACK, out=out)
+            else:
+                write_value(handler(_args(payload)), out=out)
+        except Exception as ex:
+            traceback.print_exc()
+            write_error(ex, out=out)
+
+
+def run(handler):
+    args = sys.argv[1:]
+    if "--worker" in args:
+        serve(handler)
+        return
+    args = [arg for arg in args if arg != "--binary"]
+    try:
+        result = handler(args)
+        if result is not None:
+            write_value(result)
+    except Exception as ex:
+        write_error(ex)
+        raise
@@ -0,0 +1,103 @@
+#
+# tigase_iot_worker.py
+#
+# Tigase IoT Framework - Examples
+# Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+#
+# This program is free software: you can redistribute it and/or modify
+# it under the terms of the GNU Affero General Public License as published by
+# the Free Software Foundation, either version 3 of the License,
+# or (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU Affero General Public License for more details.
+#
+# You should have received a copy of the GNU Affero General Public License
+# along with this program. Look for COPYING file in the top folder.
+# If not, see http://www.gnu.org/licenses/.
+#
+
+# Helper for python scripts executed by the example drivers.
+#
+# Script should put its logic in a function accepting list of arguments and returning output as a string, ie.:
+#
+#   import tigase_iot_worker
+#
+#   def read(args):
+#       return str(read_temperature(args[0]))
+#
+#   tigase_iot_worker.run(read)
+#
+# When the script is started by the driver with `--worker` argument, it keeps running and executes the function for
+# each request received on stdin. Otherwise function is executed once with arguments from the command line. If the
+# driver uses binary protocol (`--binary` argument), requests and responses are exchanged using tigase_iot_frames.
+#
+# Scripts controlling devices may return None if value was set or raise an exception if it was not possible.
+#
+# Streaming scripts (executed by sensors) may use parameters() to receive changes of the driver configuration without
+# being restarted, ie.:
+#
+#   params = tigase_iot_worker.parameters("parameter")
+#
+#   while True:
+#       print(read_temperature(params["parameter"]))
+
+import sys
+import threading
+import traceback
+
+
+def serve(handler, stdin=sys.stdin, stdout=sys.stdout):
+    for line in stdin:
+        args = line.rstrip("\r\n").split("\t")
+        try:
+            result = handler(args)
+            output = "" if result is None else str(result)
+        except Exception as ex:
+            # failure is reported to the driver as a response starting with "error"
+            traceback.print_exc()
+            output = "error\t" + str(ex)
+        # empty line marks the end of the response, so it cannot be a part of the output
+        output = "\n".join(part for part in output.splitlines() if part)
+        if output:
+            stdout.write(output)
+            stdout.write("\n")
+        stdout.write("\n")
+        stdout.flush()
+
+
+def run(handler):
+    if "--binary" in sys.argv[1:]:
+        import tigase_iot_frames
+        tigase_iot_frames.run(handler)
+    elif len(sys.argv) > 1 and sys.argv[1] == "--worker":
+        serve(handler)
+    else:
+        result = handler(sys.argv[1:])
+        if result is not None:
+            print(result)
+
+
+def parameters(*names):
+    """Returns dict with values of parameters passed on the command line (in order of names), which is updated in
+    place by a background thread whenever the driver sends a new value of a parameter on stdin."""
+    binary = "--binary" in sys.argv[1:]
+    args = [arg for arg in sys.argv[1:] if arg != "--binary"]
+    values = dict(zip(names, args))
+    thread = threading.Thread(target=_read_parameters, args=(values, binary))
+    thread.daemon = True
+    thread.start()
+    return values
+
+
+def _read_parameters(values, binary):
+    if binary:
+        import tigase_iot_frames
+        controls = tigase_iot_frames.read_controls()
+    else:
+        controls = (line.rstrip("\r\n").split("\t", 1) for line in sys.stdin)
+    for control in controls:
+        if len(control) == 2:
+            values[control[0]] = control[1]
@@ -0,0 +1,244 @@
+#
+# tigase_iot_zygote.py
+#
+# Tigase IoT Framework - Examples
+# Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+#
+# This program is free software: you can redistribute it and/or modify
+# it under the terms of the GNU Affero General Public License as published by
+# the Free Software Foundation, either version 3 of the License,
+# or (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU Affero General Public License for more details.
+#
+# You should have received a copy of the GNU Affero General Public License
+# along with this program. Look for COPYING file in the top folder.
+# If not, see http://www.gnu.org/licenses/.
+#
+
+# Fork server used by the example drivers with `mode` set to "fork" (see ZygoteServer).
+#
+# Server is started once with names of modules to preload as arguments, ie.:
+#
+#   python tigase_iot_zygote.py smbus RPi.GPIO numpy
+#
+# and then for each request received on stdin it forks a child, which executes the script as if it was started from
+# the command line, so scripts do not need to be modified and do not pay the cost of starting the interpreter and
+# importing preloaded modules. Requests are lines with fields separated by tab character:
+#
+#   run <id> <script> <args...>   - executes script with arguments in a new child
+#   kill <id> <signal>            - sends signal to the child
+#
+# Output of the children and their exit codes are sent on stdout as frames starting with a 4 byte length of the rest
+# of the frame, followed by 1 byte frame type and 4 byte id of the child. All numbers are big-endian.
+#
+#   OUTPUT - data written by the child to its stdout
+#   EXIT   - 4 byte exit code of the child (negative number of the signal if it was killed)
+#
+# Server is single-threaded, as forking a process with multiple threads is not safe.
+
+import errno
+import fcntl
+import importlib
+import os
+# pkgutil is imported by runpy.run_path(), so it is preloaded instead of being imported by each child
+import pkgutil  # noqa: F401
+import runpy
+import select
+import signal
+import struct
+import sys
+import traceback
+
+OUTPUT = 0x01
+EXIT = 0x02
+
+_HEADER = struct.Struct(">iBi")
+_CODE = struct.Struct(">i")
+
+
+class Server(object):
+
+    def __init__(self, inp, out):
+        self.inp = inp
+        self.out = out
+        # SIGCHLD wakes up select(), so exit codes are sent as soon as children exit
+        self.wakeup, wakeup = os.pipe()
+        for fd in (self.wakeup, wakeup):
+            fcntl.fcntl(fd, fcntl.F_SETFL, fcntl.fcntl(fd, fcntl.F_GETFL) | os.O_NONBLOCK)
+        signal.set_wakeup_fd(wakeup)
+        self.wakeup_fds = [self.wakeup, wakeup]
+        signal.signal(signal.SIGCHLD, lambda signum, frame: None)
+        self.pending = b""
+        # child pid -> id, output pipe -> id
+        self.pids = {}
+        self.pipes = {}
+        self.ids = {}
+
+    def send(self, frame_type, child_id, payload=b""):
+        data = _HEADER.pack(5 + len(payload), frame_type, child_id) + payload
+        while data:
+            data = data[os.write(self.out, data):]
+
+    def run(self):
+        while True:
+            readable = [self.inp, self.wakeup] + list(self.pipes)
+            try:
+                ready = select.select(readable, [], [], 1)[0]
+            except select.error as ex:
+                if ex.args[0] == errno.EINTR:
+                    continue
+                raise
+            for fd in ready:
+                if fd == self.wakeup:
+                    _drain(self.wakeup)
+                elif fd == self.inp:
+                    data = os.read(self.inp, 65536)
+                    if not data:
+                        self.shutdown()
+                        return
+                    self.requests(data)
+                else:
+                    self.forward(fd)
+            self.reap()
+
+    def requests(self, data):
+        lines = (self.pending + data).split(b"\n")
+        self.pending = lines.pop()
+        for line in lines:
+            fields = line.rstrip(b"\r").decode("utf-8").split("\t")
+            try:
+                if fields[0] == "run":
+                    self.fork(int(fields[1]), fields[2], fields[3:])
+                elif fields[0] == "kill":
+                    self.kill(int(fields[1]), int(fields[2]))
+            except Exception:
+                traceback.print_exc()
+
+    def fork(self, child_id, script, args):
+        r, w = os.pipe()
+        pid = os.fork()
+        if pid == 0:
+            os.close(r)
+            _child(w, script, args, [self.inp, self.out] + self.wakeup_fds + list(self.pipes))
+        os.close(w)
+        self.pids[pid] = child_id
+        self.ids[child_id] = pid
+        self.pipes[r] = child_id
+
+    def kill(self, child_id, sig):
+        pid = self.ids.get(child_id)
+        if pid is not None:
+            try:
+                os.kill(pid, sig)
+            except OSError:
+                pass
+
+    def forward(self, fd):
+        data = os.read(fd, 65536)
+        if data:
+            self.send(OUTPUT, self.pipes[fd], data)
+        else:
+            # exit code is sent when the child is reaped
+            os.close(fd)
+            del self.pipes[fd]
+
+    def reap(self):
+        while self.pids:
+            try:
+                pid, status = os.waitpid(-1, os.WNOHANG)
+            except OSError:
+                return
+            if pid == 0:
+                return
+            child_id = self.pids.pop(pid, None)
+            if child_id is None:
+                continue
+            del self.ids[child_id]
+            # remaining output needs to be sent before the exit code, output kept open by processes started by the
+            # child is not waited for
+            for fd in [fd for fd, i in self.pipes.items() if i == child_id]:
+                while fd in self.pipes and select.select([fd], [], [], 0)[0]:
+                    self.forward(fd)
+                if fd in self.pipes:
+                    os.close(fd)
+                    del self.pipes[fd]
+            code = os.WEXITSTATUS(status) if os.WIFEXITED(status) else -os.WTERMSIG(status)
+            self.send(EXIT, child_id, _CODE.pack(code))
+
+    def shutdown(self):
+        for pid in self.pids:
+            try:
+                os.kill(pid, signal.SIGTERM)
+            except OSError:
+                pass
+
+
+def _drain(fd):
+    try:
+        while os.read(fd, 512):
+            pass
+    except OSError:
+        pass
+
+
+def _child(w, script, args, fds):
+    code = 1
+    try:
+        signal.set_wakeup_fd(-1)
+        signal.signal(signal.SIGCHLD, signal.SIG_DFL)
+        for fd in fds:
+            os.close(fd)
+        os.dup2(w, 1)
+        os.close(w)
+        devnull = os.open(os.devnull, os.O_RDONLY)
+        os.dup2(devnull, 0)
+        os.close(devnull)
+        sys.stdout = sys.__stdout__
+        signal.signal(signal.SIGTERM, signal.SIG_DFL)
+        signal.signal(signal.SIGINT, signal.SIG_DFL)
+        sys.argv = [script] + args
+        sys.path.insert(0, os.path.dirname(os.path.abspath(script)))
+        try:
+            runpy.run_path(script, run_name="__main__")
+            code = 0
+        except SystemExit as ex:
+            if ex.code is None:
+                code = 0
+            elif isinstance(ex.code, int):
+                code = ex.code
+            else:
+                sys.stderr.write(str(ex.code) + "\n")
+                code = 1
+        except BaseException:
+            traceback.print_exc()
+            code = 1
+    finally:
+        try:
+            sys.stdout.flush()
+            sys.stderr.flush()
+        finally:
+            os._exit(code)
+
+
+def main():
+    for module in sys.argv[1:]:
+        try:
+            importlib.import_module(module)
+        except Exception:
+            # script importing the module will report the error
+            traceback.print_exc()
+    signal.signal(signal.SIGINT, signal.SIG_IGN)
+    inp = sys.stdin.fileno()
+    out = sys.stdout.fileno()
+    sys.stdout.flush()
+    # anything printed by preloaded modules would break the protocol
+    sys.stdout = sys.stderr
+    Server(inp, out).run()
+
+
+if __name__ == "__main__":
+    main()
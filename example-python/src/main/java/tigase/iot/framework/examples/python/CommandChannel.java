@@ -0,0 +1,306 @@
+/*
+ * CommandChannel.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.ValueType;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Persistent channel used to send commands to the python process controlling a device.
+//
+// Commands are sent using the same protocol as in PythonWorker (one line per command, response terminated with an
+// empty line) but up to `maxInFlight` commands may be sent without waiting for a response. If new command is
+// submitted while previous one is still waiting to be sent, previous one is dropped as only the newest value needs to
+// be applied to the device. Responses are reported to the listener in the order in which commands were sent.
+//
+// In binary mode script is started with additional `--binary` argument, commands are sent as COMMAND frames with
+// the value converted to a number and responses are received as ACK or ERROR frames (see FrameReader).
+public class CommandChannel<T extends IValue> {
+
+	private static final Logger log = Logger.getLogger(CommandChannel.class.getCanonicalName());
+
+	private final boolean binary;
+	private final List<String> command;
+	private final ArrayDeque<Command<T>> inFlight = new ArrayDeque<>();
+	private final Listener<T> listener;
+	private final Object lock = new Object();
+	private final int maxInFlight;
+	private final String script;
+	private long coalesced = 0;
+	private volatile DriverMetrics metrics = null;
+	private Command<T> pending = null;
+	private Process process = null;
+	private FrameWriter frameWriter = null;
+	private boolean running = true;
+	private BufferedWriter writer = null;
+	private Thread writerThread = null;
+
+	public CommandChannel(String script, int maxInFlight, Listener<T> listener) {
+		this(ScriptCommand.DEFAULT_INTERPRETER, script, false, maxInFlight, listener);
+	}
+
+	public CommandChannel(String interpreter, String script, boolean binary, int maxInFlight, Listener<T> listener) {
+		this(script, binary, ScriptCommand.create(interpreter, script, true, binary), maxInFlight, listener);
+	}
+
+	protected CommandChannel(String script, boolean binary, List<String> command, int maxInFlight,
+							 Listener<T> listener) {
+		this.script = script;
+		this.binary = binary;
+		this.command = command;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.listener = listener;
+	}
+
+	// Returns number of commands which were replaced by newer commands before they were sent.
+	public long getCoalesced() {
+		synchronized (lock) {
+			return coalesced;
+		}
+	}
+
+	// Sets metrics updated with latencies of commands (measured from submission to the response) and restarts of the
+	// python process.
+	public void setMetrics(DriverMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void submit(T value, String... args) {
+		synchronized (lock) {
+			if (!running) {
+				throw new IllegalStateException("Command channel for " + script + " is stopped");
+			}
+			if (pending != null) {
+				coalesced++;
+			}
+			pending = new Command<>(value, args);
+			if (writerThread == null) {
+				writerThread = new Thread(this::writeCommands, "command-channel-writer");
+				writerThread.setDaemon(true);
+				writerThread.start();
+			}
+			lock.notifyAll();
+		}
+	}
+
+	public void stop() {
+		List<Command<T>> failed;
+		synchronized (lock) {
+			running = false;
+			if (process != null) {
+				process.destroy();
+				process = null;
+			}
+			failed = new ArrayList<>(inFlight);
+			inFlight.clear();
+			pending = null;
+			lock.notifyAll();
+		}
+		failed.forEach(cmd -> listener.failed(cmd.value, "channel stopped"));
+	}
+
+	private void writeCommands() {
+		while (true) {
+			Command<T> cmd;
+			Process process = null;
+			BufferedWriter writer = null;
+			FrameWriter frameWriter = null;
+			IOException startFailure = null;
+			synchronized (lock) {
+				try {
+					while (running && (pending == null || inFlight.size() >= maxInFlight)) {
+						lock.wait();
+					}
+				} catch (InterruptedException ex) {
+					return;
+				}
+				if (!running) {
+					return;
+				}
+				cmd = pending;
+				pending = null;
+				try {
+					if (this.process == null) {
+						startProcess();
+					}
+					inFlight.add(cmd);
+					// snapshot used to send the command outside of the lock
+					process = this.process;
+					writer = this.writer;
+					frameWriter = this.frameWriter;
+				} catch (IOException ex) {
+					startFailure = ex;
+				}
+			}
+			if (startFailure != null) {
+				log.log(Level.WARNING, "Could not start python process for " + script, startFailure);
+				listener.failed(cmd.value, startFailure.getMessage());
+				continue;
+			}
+			try {
+				if (frameWriter != null) {
+					frameWriter.writeCommand(ValueType.toDouble(cmd.value), cmd.args);
+				} else {
+					writer.write(String.join("\t", cmd.args));
+					writer.newLine();
+					writer.flush();
+				}
+			} catch (IOException ex) {
+				log.log(Level.FINE, "Could not send command to python process for " + script, ex);
+				processFinished(process);
+			}
+		}
+	}
+
+	private void readResponses(Process process, BufferedReader reader) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					if (sb.length() > 0) {
+						sb.append(System.getProperty("line.separator"));
+					}
+					sb.append(line);
+					continue;
+				}
+				String response = sb.toString();
+				responseReceived(!response.startsWith("error"), response);
+				sb.setLength(0);
+			}
+		} catch (IOException ex) {
+			log.log(Level.FINEST, "Python process for " + script + " stopped", ex);
+		}
+		processFinished(process);
+	}
+
+	private void readFrames(Process process, FrameReader reader) {
+		try {
+			while (reader.next()) {
+				if (reader.getType() == FrameReader.ACK) {
+					responseReceived(true, "");
+				} else if (reader.getType() == FrameReader.ERROR) {
+					responseReceived(false, "error\t" + reader.getText());
+				}
+			}
+		} catch (IOException ex) {
+			log.log(Level.FINEST, "Python process for " + script + " stopped", ex);
+		}
+		processFinished(process);
+	}
+
+	private void responseReceived(boolean success, String response) {
+		Command<T> cmd;
+		synchronized (lock) {
+			cmd = inFlight.poll();
+			lock.notifyAll();
+		}
+		if (cmd != null) {
+			DriverMetrics metrics = this.metrics;
+			if (metrics != null) {
+				metrics.commandCompleted(cmd.submitted, success);
+			}
+			if (success) {
+				listener.acknowledged(cmd.value, response);
+			} else {
+				listener.failed(cmd.value, response);
+			}
+		}
+	}
+
+	// Called when the process has died. All commands waiting for the response are reported as failed and the
+	// process will be started again when the next command is sent.
+	private void processFinished(Process process) {
+		List<Command<T>> failed;
+		synchronized (lock) {
+			if (this.process != process) {
+				return;
+			}
+			process.destroy();
+			this.process = null;
+			this.writer = null;
+			this.frameWriter = null;
+			failed = new ArrayList<>(inFlight);
+			inFlight.clear();
+			lock.notifyAll();
+		}
+		DriverMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.processRestarted();
+			failed.forEach(cmd -> metrics.commandCompleted(cmd.submitted, false));
+		}
+		failed.forEach(cmd -> listener.failed(cmd.value, "python process exited"));
+	}
+
+	private void startProcess() throws IOException {
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		Runnable reader;
+		if (binary) {
+			FrameReader frameReader = new FrameReader(Channels.newChannel(process.getInputStream()));
+			this.frameWriter = new FrameWriter(process.getOutputStream());
+			reader = () -> readFrames(process, frameReader);
+		} else {
+			BufferedReader lineReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			this.writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+			reader = () -> readResponses(process, lineReader);
+		}
+		this.process = process;
+		DriverMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.processSpawned();
+		}
+		Thread readerThread = new Thread(reader, "command-channel-reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	public interface Listener<T> {
+
+		// Called when python script confirmed that command was executed. Response contains output of the script.
+		void acknowledged(T value, String response);
+
+		void failed(T value, String reason);
+	}
+
+	private static class Command<T> {
+
+		private final String[] args;
+		private final long submitted = System.nanoTime();
+		private final T value;
+
+		private Command(T value, String[] args) {
+			this.value = value;
+			this.args = args;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * ControlChannel.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// Sends new values of configuration parameters to the running python script using its standard input.
+//
+// In "text" protocol each parameter is sent as a line with name and value separated by tab character, while in
+// "binary" protocol it is sent as a CONTROL frame (see FrameReader). Script may receive them using `parameters()`
+// function of `tigase_iot_worker.py` helper and apply them without being restarted.
+public class ControlChannel {
+
+	private final FrameWriter frameWriter;
+	private final Writer writer;
+
+	public ControlChannel(Process process, boolean binary) {
+		if (binary) {
+			this.frameWriter = new FrameWriter(process.getOutputStream(), 1024);
+			this.writer = null;
+		} else {
+			this.frameWriter = null;
+			this.writer = new BufferedWriter(
+					new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+		}
+	}
+
+	// Throws IOException if the script is not running anymore.
+	public synchronized void send(String name, String value) throws IOException {
+		String text = value == null ? "" : value;
+		if (frameWriter != null) {
+			frameWriter.writeControl(name, text);
+		} else {
+			writer.write(name);
+			writer.write('\t');
+			writer.write(text);
+			writer.write('\n');
+			writer.flush();
+		}
+	}
+}
@@ -24,17 +24,23 @@ import tigase.iot.framework.devices.AbstractSensor;
 import tigase.iot.framework.devices.IConfigurationAware;
 import tigase.iot.framework.devices.IExecutorDevice;
 import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.CircuitBreaker;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.ExecutionLanes;
+import tigase.iot.framework.examples.common.UpdatePublisher;
+import tigase.iot.framework.examples.common.WriteCache;
 import tigase.kernel.beans.config.ConfigField;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class ExampleDevice<T extends IValue>
 		extends AbstractSensor<T>
 		implements IConfigurationAware, IExecutorDevice<T> {
 
+	private static final Logger log = Logger.getLogger(ExampleDevice.class.getCanonicalName());
+
 	// This is a configuration option supported by the driver. Its value may be changed during runtime by the user
 	// using remote client. You may have more than one configuration field. There is a support for fields of type:
 	// long/Long, int/Integer and String.
@@ -45,10 +51,64 @@ public class ExampleDevice<T extends IValue>
 	// If your listener needs to react on change of this field value, please create a setter for this field.
 	@ConfigField(desc = "Some parameter which can be configured and passed to the python script")
 	private String parameter = "12";
+	@ConfigField(desc = "Bean name")
+	private String name;
 
 	// Path to the python script which should be periodically executed.
 	private String script = "/home/pi/script.py";
 
+	// Interpreter used to execute the python script (ie. python3 or path to the interpreter in virtualenv).
+	@ConfigField(desc = "Python interpreter")
+	private String interpreter = ScriptCommand.DEFAULT_INTERPRETER;
+
+	// Mode in which python script is executed. In "spawn" mode new python process is started for every command, while
+	// in "channel" mode single python process is kept running and commands are sent to it (see CommandChannel). In
+	// "fork" mode new process is forked for every command from the python process with `preload` modules already
+	// imported (see ZygoteServer).
+	@ConfigField(desc = "Script execution mode (spawn, channel or fork)")
+	private String mode = "spawn";
+	@ConfigField(desc = "Comma separated list of python modules preloaded in fork mode")
+	private String preload = "";
+	private ZygoteServer zygote = null;
+	@ConfigField(desc = "Maximal number of commands sent to the python script without waiting for a response")
+	private Integer maxInFlight = 4;
+	// Protocol used to send commands to the python script in "channel" mode. In "binary" mode script is started with
+	// `--binary` argument and commands are sent as binary frames (see FrameReader) with value converted to a number.
+	@ConfigField(desc = "Protocol used to communicate with the python script (text or binary)")
+	private String protocol = "text";
+	private CommandChannel<T> channel = null;
+
+	// Commands are executed in the execution lane with higher priority than reads of sensors, so they are not delayed
+	// by queued reads (see ExecutionLanes). Commands sent in "channel" mode do not start new processes and are not
+	// limited by the lane.
+	@ConfigField(desc = "Execution lane of the script (command or poll)")
+	private String lane = ExecutionLanes.COMMAND;
+
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
+
+	// Script which does not finish within `timeout` milliseconds is killed (see ProcessWatchdog). After
+	// `breakerThreshold` consecutive timeouts commands are rejected for `breakerOpenTime` milliseconds instead of
+	// blocking the thread (see CircuitBreaker).
+	@ConfigField(desc = "Time in milliseconds after which python script is killed (0 - no timeout)")
+	private Long timeout = 10000L;
+	@ConfigField(desc = "Number of consecutive timeouts after which commands are rejected (0 - never)")
+	private Integer breakerThreshold = 3;
+	@ConfigField(desc = "Time in milliseconds for which commands are rejected after repeated timeouts")
+	private Long breakerOpenTime = 60000L;
+	private CircuitBreaker breaker = null;
+
+	// Commands setting the same value as the last confirmed state of the device are skipped (see WriteCache), unless
+	// state was confirmed more than `writeCacheTtl` milliseconds ago.
+	@ConfigField(desc = "Time in milliseconds after which the same value is written to the device again (0 - always write)")
+	private Long writeCacheTtl = 0L;
+	private WriteCache writeCache = null;
+
 	public ExampleDevice() {
 		// Type and name variables need to be filled with device type id and corresponding device type name. Those can
 		// be one of the pairs from the following list:
@@ -66,29 +126,144 @@ public class ExampleDevice<T extends IValue>
 	@Override
 	public void initialize() {
 		super.initialize();
+		metrics.register(name);
 	}
 
 	@Override
 	public void beforeUnregister() {
+		stopChannel();
+		releaseZygote();
+		metrics.unregister();
 		super.beforeUnregister();
 	}
 
+	public void setMode(String mode) {
+		this.mode = mode;
+		if (!"channel".equals(mode)) {
+			stopChannel();
+		}
+		if (!"fork".equals(mode)) {
+			releaseZygote();
+		}
+	}
+
+	public void setPreload(String preload) {
+		this.preload = preload;
+		releaseZygote();
+	}
+
+	public void setInterpreter(String interpreter) {
+		this.interpreter = interpreter;
+		stopChannel();
+		releaseZygote();
+	}
+
+	public void setProtocol(String protocol) {
+		this.protocol = protocol;
+		stopChannel();
+	}
+
+	public void setMaxInFlight(Integer maxInFlight) {
+		this.maxInFlight = maxInFlight;
+		stopChannel();
+	}
+
+	public void setLane(String lane) {
+		ExecutionLanes.getInstance().getLane(lane);
+		this.lane = lane;
+	}
+
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
+	public synchronized void setBreakerThreshold(Integer breakerThreshold) {
+		this.breakerThreshold = breakerThreshold;
+		this.breaker = null;
+	}
+
+	public synchronized void setBreakerOpenTime(Long breakerOpenTime) {
+		this.breakerOpenTime = breakerOpenTime;
+		this.breaker = null;
+	}
+
+	public synchronized CircuitBreaker getBreaker() {
+		if (breaker == null) {
+			breaker = new CircuitBreaker(breakerThreshold, breakerOpenTime);
+		}
+		return breaker;
+	}
+
+	public synchronized void setWriteCacheTtl(Long writeCacheTtl) {
+		this.writeCacheTtl = writeCacheTtl;
+		this.writeCache = null;
+	}
+
+	public synchronized WriteCache getWriteCache() {
+		if (writeCache == null) {
+			writeCache = new WriteCache(writeCacheTtl);
+		}
+		return writeCache;
+	}
+
 	@Override
 	public void setValue(T value) {
 		// here you should react on the value you received (paramter `value`) and using this value modify state of the
 		// physical device controlled by this driver
 		//
 
+		WriteCache writeCache = getWriteCache();
+		if (writeCache.skip(value)) {
+			// Device is already in the requested state, so hub is only notified that value was set.
+			metrics.writeAvoided();
+			publish(value);
+			return;
+		}
+
+		if ("channel".equals(mode)) {
+			// Command is sent to the running python process and publish() will be called when python script
+			// confirms that it was executed (see CommandChannel.Listener.acknowledged()).
+			getChannel().submit(value, parameter, value.getValue().toString());
+			return;
+		}
+
+		CircuitBreaker breaker = getBreaker();
+		if (!breaker.allowRequest()) {
+			// script is not responding, so command is rejected instead of blocking the thread
+			log.log(Level.FINE, "Python script " + script + " is not responding, value " + value.getValue() +
+					" was not set");
+			metrics.commandCompleted(System.nanoTime(), false);
+			writeCache.failed(value);
+			return;
+		}
+		long start = System.nanoTime();
 		try {
 			// Execute python script with configured parameter and value which should be set
-			if (execute(script, parameter, value.getValue().toString())) {
+			boolean success = execute(script, parameter, value.getValue().toString());
+			breaker.success();
+			if (success) {
+				metrics.commandCompleted(start, true);
+				writeCache.confirmed(value);
 				// If device state is changed properly call:
-				updateValue(value);
+				publish(value);
 				// to notify hub that value was changed
 			} else {
 				// This will be called if python script return exit code different from 0.
+				metrics.commandCompleted(start, false);
+				writeCache.failed(value);
 			}
+		} catch (ScriptTimeoutException ex) {
+			log.log(Level.WARNING, "Python script " + script + " did not set value " + value.getValue() + " in time");
+			metrics.commandCompleted(start, false);
+			metrics.timeout();
+			breaker.failure();
+			writeCache.failed(value);
 		} catch (Exception ex) {
+			log.log(Level.WARNING, "Could not set value " + value.getValue(), ex);
+			breaker.success();
+			metrics.commandCompleted(start, false);
+			metrics.error();
+			writeCache.failed(value);
 			//
 			// If it was not possible to change value of the physical device, then do nothing.
 			// If value was changed but adjustment of value was required, then call updateValue() and as a parameter pass
@@ -98,12 +273,67 @@ public class ExampleDevice<T extends IValue>
 
 	// Execute python script and wait for the result
 	protected boolean execute(String script, String... args) throws InterruptedException, IOException {
-		// In case of Python you need to spawn a python process and read its output and convert it to instance of IValue class.
-		Stream<String> command = Stream.of("python", script);
-		if (args != null) {
-			command = Stream.concat(command, Arrays.stream(args));
+		try (ExecutionLanes.Permit permit = ExecutionLanes.getInstance().acquire(lane)) {
+			// In case of Python you need to spawn a python process and read its output and convert it to instance of IValue class.
+			Process process = "fork".equals(mode)
+							  ? getZygote().start(script, false, args)
+							  : new ProcessBuilder(ScriptCommand.create(interpreter, script, false, false, args)).start();
+			metrics.processSpawned();
+			// output of the script is not used, but it is read until the script closes it, so the script does not fail
+			// when writing to it
+			int result = ProcessWatchdog.getInstance().waitFor(process, timeout, ProcessWatchdog::discard);
+			metrics.processExited(result);
+			return result == 0;
+		}
+	}
+
+	protected synchronized CommandChannel<T> getChannel() {
+		if (channel == null) {
+			CommandChannel.Listener<T> listener = new CommandChannel.Listener<T>() {
+				@Override
+				public void acknowledged(T value, String response) {
+					// Device state was changed properly, so we notify hub that value was changed.
+					// If python script reported (in the response) that value was adjusted, then you should pass
+					// actual value representing current device state instead.
+					getWriteCache().confirmed(value);
+					publish(value);
+				}
+
+				@Override
+				public void failed(T value, String reason) {
+					log.log(Level.FINE, "Could not set value " + value.getValue() + ": " + reason);
+					getWriteCache().failed(value);
+				}
+			};
+			channel = new CommandChannel<>(interpreter, script, "binary".equals(protocol), maxInFlight, listener);
+			channel.setMetrics(metrics);
+		}
+		return channel;
+	}
+
+	private synchronized void stopChannel() {
+		if (channel != null) {
+			channel.stop();
+			channel = null;
+		}
+	}
+
+	protected synchronized ZygoteServer getZygote() {
+		if (zygote == null) {
+			zygote = ZygoteServer.acquire(interpreter, preload);
 		}
-		Process process = new ProcessBuilder(command.collect(Collectors.toList())).start();
-		return process.waitFor() == 0;
+		return zygote;
+	}
+
+	private synchronized void releaseZygote() {
+		if (zygote != null) {
+			zygote.release();
+			zygote = null;
+		}
+	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
 	}
 }
@@ -23,14 +23,22 @@ package tigase.iot.framework.examples.python;
 import tigase.iot.framework.devices.AbstractPeriodSensor;
 import tigase.iot.framework.devices.IConfigurationAware;
 import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.AdaptivePeriod;
+import tigase.iot.framework.examples.common.CircuitBreaker;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.ExecutionLanes;
+import tigase.iot.framework.examples.common.PollScheduler;
+import tigase.iot.framework.examples.common.SampleHistory;
+import tigase.iot.framework.examples.common.UpdatePublisher;
+import tigase.iot.framework.examples.common.ValueType;
 import tigase.kernel.beans.config.ConfigField;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Arrays;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 // This class reads state of the sensor once every X milliseconds.
 //
@@ -45,6 +53,11 @@ public class ExamplePeriodSensor<T extends IValue>
 		extends AbstractPeriodSensor<T>
 		implements IConfigurationAware {
 
+	private static final Logger log = Logger.getLogger(ExamplePeriodSensor.class.getCanonicalName());
+	private static final String ADAPTIVE_UNSUPPORTED =
+			"adaptive sampling requires format plain, key-value or json or binary protocol (text output is not " +
+					"converted to values by the driver)";
+
 	// This is a configuration option supported by the driver. Its value may be changed during runtime by the user
 	// using remote client. You may have more than one configuration field. There is a support for fields of type:
 	// long/Long, int/Integer and String.
@@ -53,10 +66,108 @@ public class ExamplePeriodSensor<T extends IValue>
 	// is then a developers responsibility to update configuration field value.
 	@ConfigField(desc = "Some parameter which can be configured and passed to the python script")
 	private String parameter = "12";
+	@ConfigField(desc = "Bean name")
+	private String name;
 
 	// Path to the python script which should be periodically executed.
 	private String script = "/home/pi/script.py";
 
+	// Interpreter used to execute the python script (ie. python3 or path to the interpreter in virtualenv).
+	@ConfigField(desc = "Python interpreter")
+	private String interpreter = ScriptCommand.DEFAULT_INTERPRETER;
+
+	// Mode in which python script is executed. In "spawn" mode new python process is started for every read, while in
+	// "worker" mode single python process is kept running and requests are sent to it (see PythonWorker). In "fork"
+	// mode new process is forked for every read from the python process with `preload` modules already imported (see
+	// ZygoteServer).
+	@ConfigField(desc = "Script execution mode (spawn, worker or fork)")
+	private String mode = "spawn";
+	private PythonWorker worker = null;
+	@ConfigField(desc = "Comma separated list of python modules preloaded in fork mode")
+	private String preload = "";
+	private ZygoteServer zygote = null;
+
+	// Format of the script output. In "text" mode output is passed to readValue() as a String and needs to be converted
+	// to the instance of IValue there. Other formats are decoded by ValueDecoder to the configured value type.
+	@ConfigField(desc = "Format of the script output (text, plain, key-value or json)")
+	private String format = "text";
+	@ConfigField(desc = "Name of the value in key-value or json output of the script")
+	private String key = "value";
+	@ConfigField(desc = "Type of the value (humidity, light, movement, pressure or temperature)")
+	private String valueType = "temperature";
+	private ValueDecoder decoder = null;
+
+	// Sensors linked to this sensor (see LinkedSensor) receive other values from the same output of the script, so
+	// values of chips measuring several quantities at once are read by a single execution of the script.
+	@ConfigField(desc = "Name of the link used by sensors receiving other values of the script output")
+	private String link = "";
+
+	// Protocol used to exchange data with the python script. In "binary" mode script is started with `--binary`
+	// argument and sends values as binary frames (see FrameReader), which are converted to the configured value type.
+	@ConfigField(desc = "Protocol used to communicate with the python script (text or binary)")
+	private String protocol = "text";
+
+	// Scheduling of reads. In "own" mode reads are scheduled by the framework separately for each sensor, while in
+	// "shared" mode they are executed by PollScheduler shared by all sensors, which aligns reads of sensors with
+	// compatible periods to the same tick. Number of concurrent reads of the same script may be then limited by the
+	// scheduler (see PollScheduler).
+	@ConfigField(desc = "Scheduling of reads (own or shared)")
+	private String scheduling = "own";
+	@ConfigField(desc = "Maximal delay in milliseconds added to the read time to spread reads in shared scheduling")
+	private Long jitter = 0L;
+
+	// Adaptive sampling. If maximal period is longer than the period of the sensor, reads are executed less often
+	// while values stay within the deadband from the last published value and only changes larger than the deadband
+	// are published (see AdaptivePeriod).
+	//
+	// Adaptive sampling needs values decoded by the driver, so it is not supported with "text" format (unless binary
+	// protocol is used), as read() of this example does not convert text output of the script. If you convert it in
+	// read(), override isAdaptiveSupported().
+	@ConfigField(desc = "Maximal period in milliseconds between reads in adaptive mode (0 - adaptive mode disabled)")
+	private Long maxPeriod = 0L;
+	@ConfigField(desc = "Minimal change of the value which is published in adaptive mode")
+	private String deadband = "0";
+	private double deadbandValue = 0;
+	private AdaptivePeriod adaptivePeriod = null;
+	private boolean initialized = false;
+	private PollScheduler.Task sharedTask = null;
+	// Period of reads of the sensor. While the sensor is read by PollScheduler, period of the framework is set to the
+	// largest value which does not overflow timers, so the framework does not wake up for each sensor only to have
+	// readValue() return null.
+	private long readPeriod = -1;
+
+	// Reads are executed in the execution lane with lower priority than commands of devices, so they do not delay
+	// commands and number of concurrently executed scripts is limited (see ExecutionLanes).
+	@ConfigField(desc = "Execution lane of the script (poll or command)")
+	private String lane = ExecutionLanes.POLL;
+
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+
+	// Number of values kept in the local history of the sensor (0 - history disabled). History is kept outside of the
+	// java heap and may be queried with getHistory() (see SampleHistory).
+	@ConfigField(desc = "Number of values kept in the history of the sensor (0 - history disabled)")
+	private Integer historySize = 0;
+	private volatile SampleHistory history = null;
+
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
+
+	// Script which does not finish within `timeout` milliseconds is killed (see ProcessWatchdog). After
+	// `breakerThreshold` consecutive timeouts script is not executed for `breakerOpenTime` milliseconds and the last
+	// value read from the sensor is returned instead (see CircuitBreaker).
+	@ConfigField(desc = "Time in milliseconds after which python script is killed (0 - no timeout)")
+	private Long timeout = 10000L;
+	@ConfigField(desc = "Number of consecutive timeouts after which reads are suspended (0 - never)")
+	private Integer breakerThreshold = 3;
+	@ConfigField(desc = "Time in milliseconds for which reads are suspended after repeated timeouts")
+	private Long breakerOpenTime = 60000L;
+	private CircuitBreaker breaker = null;
+	private volatile T lastGood = null;
+	private volatile boolean stale = false;
+
 	public ExamplePeriodSensor() {
 		// Type and name variables need to be filled with device type id and corresponding device type name. Those can
 		// be one of the pairs from the following list:
@@ -73,8 +184,273 @@ public class ExamplePeriodSensor<T extends IValue>
 		super(null, null, null, -1);
 	}
 
+	@Override
+	public void initialize() {
+		super.initialize();
+		metrics.register(name);
+		synchronized (this) {
+			initialized = true;
+			if (maxPeriod != null && maxPeriod > 0 && !isAdaptiveSupported(format, protocol)) {
+				log.log(Level.WARNING, "Adaptive sampling of " + script + " is disabled: " + ADAPTIVE_UNSUPPORTED);
+			}
+		}
+		updateScheduling();
+	}
+
+	@Override
+	public void beforeUnregister() {
+		initialized = false;
+		updateScheduling();
+		releaseWorker();
+		releaseZygote();
+		metrics.unregister();
+		super.beforeUnregister();
+	}
+
+	@Override
+	public void setPeriod(long period) {
+		synchronized (this) {
+			readPeriod = period;
+		}
+		resetAdaptivePeriod();
+		updateScheduling();
+	}
+
+	public synchronized void setMaxPeriod(Long maxPeriod) {
+		checkAdaptive(maxPeriod, format, protocol);
+		this.maxPeriod = maxPeriod;
+		resetAdaptivePeriod();
+	}
+
+	public synchronized void setDeadband(String deadband) {
+		try {
+			this.deadbandValue = Double.parseDouble(deadband);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Deadband needs to be a number: " + deadband, ex);
+		}
+		this.deadband = deadband;
+		resetAdaptivePeriod();
+	}
+
+	public void setScheduling(String scheduling) {
+		this.scheduling = scheduling;
+		updateScheduling();
+	}
+
+	public void setJitter(Long jitter) {
+		this.jitter = jitter;
+		updateScheduling();
+	}
+
+	public void setMode(String mode) {
+		this.mode = mode;
+		if (!"worker".equals(mode)) {
+			releaseWorker();
+		}
+		if (!"fork".equals(mode)) {
+			releaseZygote();
+		}
+	}
+
+	public void setPreload(String preload) {
+		this.preload = preload;
+		releaseZygote();
+	}
+
+	public void setInterpreter(String interpreter) {
+		this.interpreter = interpreter;
+		releaseWorker();
+		releaseZygote();
+	}
+
+	public void setProtocol(String protocol) {
+		synchronized (this) {
+			checkAdaptive(maxPeriod, format, protocol);
+			this.protocol = protocol;
+		}
+		releaseWorker();
+	}
+
+	public synchronized void setFormat(String format) {
+		checkAdaptive(maxPeriod, format, protocol);
+		this.format = format;
+		this.decoder = null;
+	}
+
+	public synchronized void setHistorySize(Integer historySize) {
+		this.historySize = historySize;
+		this.history = historySize > 0 ? new SampleHistory(historySize) : null;
+	}
+
+	// Returns history of values read by the sensor or null if history is disabled.
+	public SampleHistory getHistory() {
+		return history;
+	}
+
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
+	public synchronized void setBreakerThreshold(Integer breakerThreshold) {
+		this.breakerThreshold = breakerThreshold;
+		this.breaker = null;
+	}
+
+	public synchronized void setBreakerOpenTime(Long breakerOpenTime) {
+		this.breakerOpenTime = breakerOpenTime;
+		this.breaker = null;
+	}
+
+	public synchronized CircuitBreaker getBreaker() {
+		if (breaker == null) {
+			breaker = new CircuitBreaker(breakerThreshold, breakerOpenTime);
+		}
+		return breaker;
+	}
+
+	// Returns true if the last returned value was not read from the sensor, but it is the last known value returned
+	// as the script was not responding.
+	public boolean isStale() {
+		return stale;
+	}
+
+	public void setLane(String lane) {
+		ExecutionLanes.getInstance().getLane(lane);
+		this.lane = lane;
+	}
+
+	public synchronized void setKey(String key) {
+		this.key = key;
+		this.decoder = null;
+	}
+
+	public synchronized void setValueType(String valueType) {
+		this.valueType = valueType;
+		this.decoder = null;
+	}
+
 	@Override
 	protected T readValue() {
+		if (sharedTask != null) {
+			// In "shared" scheduling reads are executed on ticks of PollScheduler (see readShared()).
+			return null;
+		}
+		T value = poll();
+		if (value != null && (publishWindow > 0 || !UpdatePublisher.getInstance().isDirect())) {
+			// value will be published by UpdatePublisher (ie. stored in the journal while hub is disconnected)
+			publish(value);
+			return null;
+		}
+		return value;
+	}
+
+	// Executes read if it is due and returns value which should be published.
+	private T poll() {
+		AdaptivePeriod adaptivePeriod = getAdaptivePeriod();
+		if (adaptivePeriod == null) {
+			return measuredRead();
+		}
+		long now = System.currentTimeMillis();
+		if (!adaptivePeriod.isDue(now)) {
+			return null;
+		}
+		T value = measuredRead();
+		if (value == null || !adaptivePeriod.update(now, ValueType.toDouble(value))) {
+			return null;
+		}
+		return value;
+	}
+
+	protected synchronized AdaptivePeriod getAdaptivePeriod() {
+		if (adaptivePeriod == null && maxPeriod != null && maxPeriod > readPeriod && readPeriod > 0 &&
+				isAdaptiveSupported(format, protocol)) {
+			adaptivePeriod = new AdaptivePeriod(readPeriod, maxPeriod, deadbandValue);
+		}
+		return adaptivePeriod;
+	}
+
+	// Returns true if values read in the given format and protocol may be used for adaptive sampling.
+	protected boolean isAdaptiveSupported(String format, String protocol) {
+		return !"text".equals(format) || "binary".equals(protocol);
+	}
+
+	// Changes of the configuration made after the sensor was initialized are rejected if adaptive sampling would not
+	// work with them. Initial configuration may be set in any order, so it is only checked in initialize().
+	private void checkAdaptive(Long maxPeriod, String format, String protocol) {
+		if (initialized && maxPeriod != null && maxPeriod > 0 && !isAdaptiveSupported(format, protocol)) {
+			throw new IllegalArgumentException(ADAPTIVE_UNSUPPORTED);
+		}
+	}
+
+	private synchronized void resetAdaptivePeriod() {
+		adaptivePeriod = null;
+	}
+
+	// Executes read() updating metrics and history of the sensor.
+	private T measuredRead() {
+		CircuitBreaker breaker = getBreaker();
+		if (!breaker.allowRequest()) {
+			// script is not responding, so the last known value is returned instead of blocking the thread
+			return staleValue();
+		}
+		ExecutionLanes.Permit permit = acquireLane();
+		long start = System.nanoTime();
+		T value;
+		try {
+			value = read();
+		} catch (RuntimeException ex) {
+			metrics.readCompleted(start, false);
+			if (isTimeout(ex)) {
+				metrics.timeout();
+				breaker.failure();
+			} else {
+				// script finished, so it is not hanging
+				breaker.success();
+			}
+			throw ex;
+		} finally {
+			permit.close();
+		}
+		metrics.readCompleted(start, true);
+		breaker.success();
+		record(value);
+		if (value != null) {
+			lastGood = value;
+			stale = false;
+		}
+		return value;
+	}
+
+	// Waits until the script may be executed in the lane of the sensor.
+	private ExecutionLanes.Permit acquireLane() {
+		try {
+			return ExecutionLanes.getInstance().acquire(lane);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for execution lane " + lane, ex);
+		}
+	}
+
+	private T staleValue() {
+		T value = lastGood;
+		if (value != null) {
+			stale = true;
+			metrics.staleRead();
+		}
+		return value;
+	}
+
+	private static boolean isTimeout(Throwable ex) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ScriptTimeoutException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected T read() {
 		// Here you need to put your code used to read data from the sensors and wrap it in the class representing value
 		// returned by this sensor, for class name please check documentation of this class at the top of the class
 		// definition.
@@ -83,6 +459,36 @@ public class ExamplePeriodSensor<T extends IValue>
 		// as if the read from the sensors failed. Next attempt will occur normally.
 
 		try {
+			List<LinkedSensor<?>> linked = LinkedSensor.getLinked(link);
+			if ("binary".equals(protocol)) {
+				if (!linked.isEmpty()) {
+					// Values at other indexes of the frame are passed to the linked sensors.
+					LinkedValues result = new LinkedValues(ValueType.parse(valueType), linked);
+					execute((FrameReader.FrameHandler) result, script, parameter);
+					result.dispatch();
+					return (T) result.getValue();
+				}
+				// Values sent by the script are converted to the configured value type.
+				FrameReader.LastValue result = new FrameReader.LastValue(ValueType.parse(valueType));
+				execute(result, script, parameter);
+				return (T) result.getValue();
+			}
+
+			ValueDecoder decoder = getDecoder();
+			if (decoder != null && !linked.isEmpty()) {
+				// Values of other keys of the output are passed to the linked sensors.
+				LinkedValues result = new LinkedValues(decoder, format, linked, metrics::error);
+				execute((LineReader.LineHandler) result, script, parameter);
+				result.dispatch();
+				return (T) result.getValue();
+			}
+			if (decoder != null) {
+				// Output of the script is converted to the instance of IValue by the configured decoder.
+				ValueDecoder.LastValue result = new ValueDecoder.LastValue(decoder, metrics::error);
+				execute(result, script, parameter);
+				return (T) result.getValue();
+			}
+
 			// Execute python script with provided parameters
 			String result = execute(script, parameter);
 
@@ -95,20 +501,154 @@ public class ExamplePeriodSensor<T extends IValue>
 
 	// Execute python script and wait for the result
 	protected String execute(String script, String... args) throws InterruptedException, IOException {
-		// In case of Python you need to spawn a python process and read its output and convert it to instance of IValue class.
-		Stream<String> command = Stream.of("python", script);
-		if (args != null) {
-			command = Stream.concat(command, Arrays.stream(args));
-		}
-		Process process = new ProcessBuilder(command.collect(Collectors.toList())).start();
 		StringBuilder sb = new StringBuilder();
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-			String line = null;
-			while ((line = reader.readLine()) != null) {
-				sb.append(line).append(System.getProperty("line.separator"));
+		execute((buf, off, len) -> sb.append(new String(buf, off, len, StandardCharsets.UTF_8))
+				.append(System.lineSeparator()), script, args);
+		return sb.toString();
+	}
+
+	// Execute python script and pass each line of its output to the handler
+	protected void execute(LineReader.LineHandler handler, String script, String... args)
+			throws InterruptedException, IOException {
+		if ("worker".equals(mode)) {
+			executeInWorker(handler, script, args);
+		} else {
+			executeInProcess(handler, script, args);
+		}
+	}
+
+	// Execute python script using binary protocol and pass each frame sent by the script to the handler
+	protected void execute(FrameReader.FrameHandler handler, String script, String... args)
+			throws InterruptedException, IOException {
+		if ("worker".equals(mode)) {
+			PythonWorker worker = getWorker(true);
+			try {
+				worker.request(timeout, handler, args);
+				return;
+			} catch (ScriptTimeoutException ex) {
+				throw ex;
+			} catch (ScriptErrorException ex) {
+				metrics.error();
+				throw ex;
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Python worker for " + script + " failed, executing script in new process", ex);
+				metrics.error();
 			}
 		}
-		int result = process.waitFor();
-		return sb.toString();
+		Process process = startProcess(script, true, args);
+		metrics.processExited(ProcessWatchdog.getInstance()
+									  .waitFor(process, timeout,
+											   in -> new FrameReader(Channels.newChannel(in)).readFrames(handler)));
+	}
+
+	protected void executeInProcess(LineReader.LineHandler handler, String script, String... args)
+			throws InterruptedException, IOException {
+		Process process = startProcess(script, false, args);
+		metrics.processExited(
+				ProcessWatchdog.getInstance().waitFor(process, timeout, in -> new LineReader(in).readLines(handler)));
+	}
+
+	protected Process startProcess(String script, boolean binary, String... args) throws IOException {
+		// In case of Python you need to spawn a python process and read its output and convert it to instance of IValue class.
+		Process process = "fork".equals(mode)
+						  ? getZygote().start(script, binary, args)
+						  : new ProcessBuilder(ScriptCommand.create(interpreter, script, false, binary, args)).start();
+		metrics.processSpawned();
+		return process;
+	}
+
+	// Send request to the long-lived python process. If worker cannot be (re)started, the script is executed in a new
+	// process as a fallback.
+	protected void executeInWorker(LineReader.LineHandler handler, String script, String... args)
+			throws InterruptedException, IOException {
+		PythonWorker worker = getWorker(false);
+		try {
+			worker.request(timeout, handler, args);
+		} catch (ScriptTimeoutException ex) {
+			throw ex;
+		} catch (ScriptErrorException ex) {
+			// script failed, so executing it in a new process would not help
+			metrics.error();
+			throw ex;
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Python worker for " + script + " failed, executing script in new process", ex);
+			metrics.error();
+			executeInProcess(handler, script, args);
+		}
+	}
+
+	protected synchronized ValueDecoder getDecoder() {
+		if (decoder == null && !"text".equals(format)) {
+			decoder = ValueDecoder.create(format, key, ValueType.parse(valueType));
+		}
+		return decoder;
+	}
+
+	protected synchronized PythonWorker getWorker(boolean binary) {
+		if (worker != null && worker.isBinary() != binary) {
+			releaseWorker();
+		}
+		if (worker == null) {
+			worker = PythonWorker.acquire(interpreter, script, binary);
+			metrics.setExternalRestarts(worker::getRestarts);
+		}
+		return worker;
+	}
+
+	protected synchronized ZygoteServer getZygote() {
+		if (zygote == null) {
+			zygote = ZygoteServer.acquire(interpreter, preload);
+		}
+		return zygote;
+	}
+
+	private void readShared() {
+		T value = poll();
+		if (value != null) {
+			publish(value);
+		}
+	}
+
+	private synchronized void updateScheduling() {
+		if (sharedTask != null) {
+			sharedTask.cancel();
+			sharedTask = null;
+		}
+		if (initialized && "shared".equals(scheduling) && readPeriod > 0) {
+			PollScheduler scheduler = PollScheduler.getInstance();
+			sharedTask = scheduler.schedule(script + "@" + System.identityHashCode(this), script, readPeriod, jitter,
+											this::readShared);
+		}
+		long period = sharedTask != null ? Integer.MAX_VALUE : readPeriod;
+		if (super.getPeriod() != period) {
+			super.setPeriod(period);
+		}
+	}
+
+	private synchronized void releaseWorker() {
+		if (worker != null) {
+			worker.release();
+			worker = null;
+			metrics.setExternalRestarts(null);
+		}
+	}
+
+	private synchronized void releaseZygote() {
+		if (zygote != null) {
+			zygote.release();
+			zygote = null;
+		}
+	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
+	}
+
+	private void record(T value) {
+		SampleHistory history = this.history;
+		if (history != null && value != null) {
+			history.add(System.currentTimeMillis(), ValueType.toDouble(value));
+		}
 	}
 }
@@ -23,13 +23,21 @@ package tigase.iot.framework.examples.python;
 import tigase.iot.framework.devices.AbstractSensor;
 import tigase.iot.framework.devices.IConfigurationAware;
 import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.DriverStartup;
+import tigase.iot.framework.examples.common.SampleHistory;
+import tigase.iot.framework.examples.common.UpdatePublisher;
+import tigase.iot.framework.examples.common.ValueType;
 import tigase.kernel.beans.config.ConfigField;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.Arrays;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 // T needs to be a class representing a value returned by this sensor. If should be one of the following list of classes
 // (available in tigase.iot.framework.values package) for supported value types:
@@ -42,6 +50,8 @@ public class ExampleSensor<T extends IValue>
 		extends AbstractSensor<T>
 		implements IConfigurationAware {
 
+	private static final Logger log = Logger.getLogger(ExampleSensor.class.getCanonicalName());
+
 	// This is a configuration option supported by the driver. Its value may be changed during runtime by the user
 	// using remote client. You may have more than one configuration field. There is a support for fields of type:
 	// long/Long, int/Integer and String.
@@ -52,12 +62,82 @@ public class ExampleSensor<T extends IValue>
 	// If your listener needs to react on change of this field value, please create a setter for this field.
 	@ConfigField(desc = "Some parameter which can be configured and passed to the python script")
 	private String parameter = "12";
+	@ConfigField(desc = "Bean name")
+	private String name;
 
-	// Path to the python script which should be periodically executed.
+	// Path to the python script which should be executed. Change of the path restarts the python process.
+	@ConfigField(desc = "Path to the python script")
 	private String script = "/home/pi/script.py";
+
+	// Way in which changes of the parameter are applied to the running python process. In "control" mode new value is
+	// sent to the script over its standard input (see ControlChannel), while in "restart" mode the process is
+	// restarted with the new value, which is required for scripts not reading parameters from standard input.
+	@ConfigField(desc = "Way of applying changed parameter to the python script (control or restart)")
+	private String reconfigure = "control";
+	private ControlChannel control = null;
+	private boolean running = false;
+
+	// Interpreter used to execute the python script (ie. python3 or path to the interpreter in virtualenv).
+	@ConfigField(desc = "Python interpreter")
+	private String interpreter = ScriptCommand.DEFAULT_INTERPRETER;
 	private Thread thread = null;
 	private Process process = null;
 
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+
+	// Number of values kept in the local history of the sensor (0 - history disabled). History is kept outside of the
+	// java heap and may be queried with getHistory() (see SampleHistory).
+	@ConfigField(desc = "Number of values kept in the history of the sensor (0 - history disabled)")
+	private Integer historySize = 0;
+	private volatile SampleHistory history = null;
+
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
+
+	// Policy used to pass lines read from the python process to the thread publishing values. In "direct" mode each
+	// line is handled by the thread reading output of the python process, while "latest", "sample" and "drop-oldest"
+	// use SampleBuffer with corresponding policy.
+	@ConfigField(desc = "Streaming mode (direct, latest, sample or drop-oldest)")
+	private String streaming = "direct";
+	@ConfigField(desc = "Number of samples kept in drop-oldest mode")
+	private Integer bufferSize = 64;
+	@ConfigField(desc = "Period in milliseconds between published samples in sample mode")
+	private Long samplePeriod = 1000L;
+	private volatile SampleBuffer<T> buffer = null;
+	private Thread publisher = null;
+
+	// Format of the script output. In "text" mode each line is passed to parseLine() as a String and needs to be
+	// converted to the instance of IValue there. Other formats are decoded by ValueDecoder to the configured value type.
+	@ConfigField(desc = "Format of the script output (text, plain, key-value or json)")
+	private String format = "text";
+	@ConfigField(desc = "Name of the value in key-value or json output of the script")
+	private String key = "value";
+	@ConfigField(desc = "Type of the value (humidity, light, movement, pressure or temperature)")
+	private String valueType = "temperature";
+	private ValueDecoder decoder = null;
+
+	// Protocol used to read data from the python script. In "binary" mode script is started with `--binary` argument
+	// and sends values as binary frames (see FrameReader), which are converted to the configured value type.
+	@ConfigField(desc = "Protocol used to communicate with the python script (text or binary)")
+	private String protocol = "text";
+
+	// Way in which output of the python process is read. In "thread" mode a separate thread is started for each sensor,
+	// while in "shared" mode output is read by the OutputReactor shared by all sensors.
+	@ConfigField(desc = "Reader of the python process output (thread or shared)")
+	private String reader = "thread";
+	private OutputReactor.Registration registration = null;
+
+	// Activation of the sensor during startup of the hub. In "eager" mode python process is started when sensor is
+	// initialized, in "parallel" mode it is started by the pool shared by all drivers and in "lazy" mode only when
+	// value of the sensor is read for the first time (see DriverStartup).
+	@ConfigField(desc = "Startup of the python process (eager, parallel or lazy)")
+	private String startup = "eager";
+	private DriverStartup.Activation activation = null;
+	private boolean initialized = false;
+
 	public ExampleSensor() {
 		// Type and name variables need to be filled with device type id and corresponding device type name. Those can
 		// be one of the pairs from the following list:
@@ -75,69 +155,325 @@ public class ExampleSensor<T extends IValue>
 	@Override
 	public void initialize() {
 		super.initialize();
+		metrics.register(name);
 		// here you should initialize your mechanism for listening on the events from the sensor.
-		startPythonProcess();
+		synchronized (this) {
+			initialized = true;
+		}
+		activation = DriverStartup.getInstance().start(metrics, startup, this::activate);
 	}
 
 	@Override
 	public void beforeUnregister() {
+		if (activation != null) {
+			activation.cancel();
+		}
+		synchronized (this) {
+			initialized = false;
+		}
 		stopPythonProcess();
+		metrics.unregister();
 		super.beforeUnregister();
 	}
 
-	// This method will be called by the separate thread whenever python process will provide any line to the output stream.
-	private void handleEvent(String line) {
+	// This method will be called in "text" format by the separate thread whenever python process will provide any line
+	// to the output stream.
+	protected T parseLine(String line) {
 		// Please convert provided value to the class representing value returned by this sensor
-		// (for class name please check documentation of this class at the top of the class definition) and call
-		// updateValue() method passing newly read value.
+		// (for class name please check documentation of this class at the top of the class definition) and return it.
 		//
+		// If line does not contain value, return null.
+		return null;
+	}
+
+	// This method will be called with every value read from the python process.
+	private void handleEvent(T value) {
 		// null is not an acceptable value!
-		this.updateValue(null);
+		record(value);
+		this.publish(value);
+	}
+
+	@Override
+	public T getValue() {
+		DriverStartup.Activation activation = this.activation;
+		if (activation != null) {
+			// in "lazy" mode python process is started on the first read
+			activation.activate();
+		}
+		return super.getValue();
+	}
+
+	public synchronized void setParameter(String parameter) {
+		boolean changed = !Objects.equals(this.parameter, parameter);
+		this.parameter = parameter;
+		if (changed && running) {
+			if (!"restart".equals(reconfigure) && sendControl("parameter", parameter)) {
+				return;
+			}
+			restartPythonProcess();
+		}
+	}
+
+	public synchronized void setScript(String script) {
+		boolean changed = !Objects.equals(this.script, script);
+		this.script = script;
+		if (changed && running) {
+			restartPythonProcess();
+		}
+	}
+
+	public synchronized void setFormat(String format) {
+		this.format = format;
+		this.decoder = null;
+	}
+
+	public synchronized void setHistorySize(Integer historySize) {
+		this.historySize = historySize;
+		this.history = historySize > 0 ? new SampleHistory(historySize) : null;
+	}
+
+	// Returns history of values read by the sensor or null if history is disabled.
+	public SampleHistory getHistory() {
+		return history;
+	}
+
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
+	public synchronized void setKey(String key) {
+		this.key = key;
+		this.decoder = null;
+	}
+
+	public synchronized void setValueType(String valueType) {
+		this.valueType = valueType;
+		this.decoder = null;
+	}
+
+	public long getCoalescedSamples() {
+		SampleBuffer<T> buffer = this.buffer;
+		return buffer == null ? 0 : buffer.getCoalesced();
+	}
+
+	public long getDroppedSamples() {
+		SampleBuffer<T> buffer = this.buffer;
+		return buffer == null ? 0 : buffer.getDropped();
+	}
+
+	private synchronized void activate() {
+		if (initialized && !running) {
+			startPythonProcess();
+		}
 	}
 
 	private void startPythonProcess() {
 		synchronized (this) {
-			thread = new Thread(this::startProcess);
-			thread.start();
+			running = true;
+			if (!"direct".equals(streaming)) {
+				SampleBuffer<T> buffer = new SampleBuffer<>(SampleBuffer.Policy.parse(streaming), bufferSize);
+				this.buffer = buffer;
+				publisher = new Thread(() -> publishSamples(buffer), "sample-publisher-" + script);
+				publisher.setDaemon(true);
+				publisher.start();
+			}
+			if ("shared".equals(reader)) {
+				startSharedProcess();
+			} else {
+				startThreadProcess();
+			}
 		}
 	}
 
 	private void stopPythonProcess() {
 		synchronized (this) {
+			running = false;
+			control = null;
+			if (registration != null) {
+				registration.cancel();
+				registration = null;
+			}
 			if (process != null) {
 				process.destroy();
 			}
 			if (thread != null) {
 				thread.interrupt();
 			}
+			if (publisher != null) {
+				publisher.interrupt();
+				publisher = null;
+			}
+			buffer = null;
+		}
+	}
+
+	private synchronized void restartPythonProcess() {
+		log.log(Level.FINE, "Restarting python script " + script);
+		stopPythonProcess();
+		startPythonProcess();
+	}
+
+	// Sends new value of the parameter to the running python process. Returns false if it was not possible.
+	private synchronized boolean sendControl(String name, String value) {
+		if (control == null) {
+			return false;
+		}
+		try {
+			control.send(name, value);
+			return true;
+		} catch (IOException ex) {
+			log.log(Level.FINE, "Could not send " + name + " to python script " + script, ex);
+			return false;
+		}
+	}
+
+	// This method is executed by the publisher thread and passes samples from the buffer to handleEvent().
+	private void publishSamples(SampleBuffer<T> buffer) {
+		long period = buffer.getPolicy() == SampleBuffer.Policy.SAMPLE ? samplePeriod : 1000;
+		while (!Thread.currentThread().isInterrupted()) {
+			T value = buffer.poll(period, TimeUnit.MILLISECONDS);
+			if (value != null) {
+				try {
+					handleEvent(value);
+				} catch (RuntimeException ex) {
+					log.log(Level.WARNING, "Could not publish value: " + value.getValue(), ex);
+					metrics.error();
+				}
+			}
 		}
 	}
 
-	private void startProcess() {
-		// Start python script with provided parameters
-		execute(script, parameter);
+	// Start python script with provided parameters and read its output in a separate thread. Process is started by
+	// the calling thread, so time of activation of the sensor includes start of the process.
+	private void startThreadProcess() {
+		try {
+			boolean binary = "binary".equals(protocol);
+			Process process = startProcess(script, binary, parameter);
+			thread = new Thread(() -> readOutput(process, binary, script));
+			thread.start();
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Could not start python script " + script, ex);
+			metrics.error();
+		}
+	}
+
+	// Start python script with provided parameters and register its output in the shared OutputReactor.
+	private void startSharedProcess() {
+		try {
+			boolean binary = "binary".equals(protocol);
+			Process process = startProcess(script, binary, parameter);
+			registration = OutputReactor.getInstance()
+					.register(process, binary ? OutputReactor.frames(frameHandler(script))
+										   : OutputReactor.lines(lineHandler()), this::processExited);
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Could not start python script " + script, ex);
+			metrics.error();
+		}
 	}
 
 	// Execute python script and wait for the result
 	protected void execute(String script, String... args) {
+		boolean binary = "binary".equals(protocol);
+		Process process;
 		try {
-			// In case of Python you need to spawn a python process and read its output and convert it to instance of IValue class.
-			Stream<String> command = Stream.of("python", script);
-			if (args != null) {
-				command = Stream.concat(command, Arrays.stream(args));
-			}
-			synchronized (this) {
-				process = new ProcessBuilder(command.collect(Collectors.toList())).start();
-			}
-			try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-				String line = null;
-				while ((line = reader.readLine()) != null) {
-					handleEvent(line);
+			process = startProcess(script, binary, args);
+		} catch (IOException ex) {
+			metrics.error();
+			throw new RuntimeException("Could not start python script " + script, ex);
+		}
+		readOutput(process, binary, script);
+	}
+
+	// Reads output of the python process until it exits.
+	private void readOutput(Process process, boolean binary, String script) {
+		try {
+			try (InputStream in = process.getInputStream()) {
+				if (binary) {
+					new FrameReader(Channels.newChannel(in)).readFrames(frameHandler(script));
+				} else {
+					new LineReader(in).readLines(lineHandler());
 				}
 			}
-			int result = process.waitFor();
+			processExited(process.waitFor());
 		} catch (Exception ex) {
+			if (ex instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+				// process was stopped by stopPythonProcess(), ie. to be restarted with new configuration
+				log.log(Level.FINEST, "Python script " + script + " stopped");
+				return;
+			}
+			metrics.error();
 			throw new RuntimeException("Python process stopped", ex);
 		}
 	}
+
+	protected synchronized Process startProcess(String script, boolean binary, String... args) throws IOException {
+		// In case of Python you need to spawn a python process and read its output and convert it to instance of IValue class.
+		process = new ProcessBuilder(ScriptCommand.create(interpreter, script, false, binary, args)).start();
+		control = new ControlChannel(process, binary);
+		metrics.processSpawned();
+		return process;
+	}
+
+	private void processExited(int result) {
+		metrics.processExited(result);
+		if (result != 0) {
+			log.log(Level.FINE, "Python script " + script + " exited with code " + result);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private LineReader.LineHandler lineHandler() {
+		ValueDecoder decoder = getDecoder();
+		return (buf, off, len) -> {
+			metrics.received();
+			dispatch(decoder != null
+					 ? (T) decoder.decode(buf, off, len, metrics::error)
+					 : parseLine(new String(buf, off, len, StandardCharsets.UTF_8)));
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private FrameReader.FrameHandler frameHandler(String script) {
+		ValueType valueType = ValueType.parse(this.valueType);
+		return frame -> {
+			metrics.received();
+			if (frame.isValue()) {
+				dispatch((T) valueType.create(frame.getNumber(), frame.getTimestamp()));
+			} else if (frame.getType() == FrameReader.ERROR) {
+				log.log(Level.WARNING, "Python script " + script + " failed: " + frame.getText());
+			}
+		};
+	}
+
+	// Passes value read from the python process to the publisher thread or directly to handleEvent().
+	private void dispatch(T value) {
+		if (value == null) {
+			return;
+		}
+		SampleBuffer<T> buffer = this.buffer;
+		if (buffer == null) {
+			handleEvent(value);
+		} else {
+			buffer.offer(value);
+		}
+	}
+
+	protected synchronized ValueDecoder getDecoder() {
+		if (decoder == null && !"text".equals(format)) {
+			decoder = ValueDecoder.create(format, key, ValueType.parse(valueType));
+		}
+		return decoder;
+	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
+	}
+
+	private void record(T value) {
+		SampleHistory history = this.history;
+		if (history != null && value != null) {
+			history.add(System.currentTimeMillis(), ValueType.toDouble(value));
+		}
+	}
 }
@@ -0,0 +1,250 @@
+/*
+ * FrameReader.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.ValueType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// Reads binary frames sent by the python script (see `tigase_iot_frames.py` helper).
+//
+// Each frame starts with a 4 byte length of the rest of the frame, followed by 1 byte frame type, 8 byte timestamp
+// (milliseconds since epoch) and payload. All numbers are big-endian. Payload depends on the frame type:
+// DOUBLE - single 8 byte floating point number
+// LONG - single 8 byte integer
+// BOOLEAN - single byte (0 or 1)
+// DOUBLES - sequence of 8 byte floating point numbers
+// REQUEST - UTF-8 encoded arguments separated by tab character
+// COMMAND - 8 byte floating point number followed by UTF-8 encoded arguments separated by tab character
+// CONTROL - UTF-8 encoded name and new value of the configuration parameter separated by tab character
+// ACK - empty
+// ERROR - UTF-8 encoded error message
+//
+// Frames are read into a reused direct buffer and their content is accessed in place.
+public class FrameReader {
+
+	public static final byte DOUBLE = 0x01;
+	public static final byte LONG = 0x02;
+	public static final byte BOOLEAN = 0x03;
+	public static final byte DOUBLES = 0x04;
+	public static final byte REQUEST = 0x20;
+	public static final byte COMMAND = 0x21;
+	public static final byte CONTROL = 0x22;
+	public static final byte ACK = 0x30;
+	public static final byte ERROR = 0x31;
+
+	public static final int HEADER_SIZE = 1 + 8;
+	public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+	private final ReadableByteChannel channel;
+	private ByteBuffer buffer;
+	private int frameEnd = 0;
+	private int payloadLength = 0;
+	private int payloadStart = 0;
+	private long timestamp = 0;
+	private byte type = 0;
+
+	public FrameReader(ReadableByteChannel channel) {
+		this(channel, 4096);
+	}
+
+	public FrameReader(ReadableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer.flip();
+	}
+
+	// Reads next frame. Returns false if end of stream was reached.
+	public boolean next() throws IOException {
+		buffer.position(frameEnd);
+		if (!ensure(4)) {
+			if (buffer.hasRemaining()) {
+				throw new EOFException("Truncated frame");
+			}
+			return false;
+		}
+		int length = buffer.getInt(buffer.position());
+		if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+		if (!ensure(4 + length)) {
+			throw new EOFException("Truncated frame");
+		}
+		parse(buffer.position(), length);
+		return true;
+	}
+
+	// Makes the complete frame stored in the array the current frame. Used when frames are read by OutputReactor
+	// instead of this reader.
+	void wrap(byte[] data, int off, int len) throws IOException {
+		int length = len - 4;
+		if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+		if (buffer.capacity() < len) {
+			buffer = ByteBuffer.allocateDirect(Math.max(len, buffer.capacity() * 2));
+		}
+		buffer.clear();
+		buffer.put(data, off, len);
+		buffer.flip();
+		parse(0, length);
+	}
+
+	private void parse(int pos, int length) {
+		type = buffer.get(pos + 4);
+		timestamp = buffer.getLong(pos + 5);
+		payloadStart = pos + 4 + HEADER_SIZE;
+		payloadLength = length - HEADER_SIZE;
+		frameEnd = pos + 4 + length;
+	}
+
+	// Reads frames until end of stream passing each of them to the handler.
+	public void readFrames(FrameHandler handler) throws IOException {
+		while (next()) {
+			handler.handle(this);
+		}
+	}
+
+	public byte getType() {
+		return type;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+	public boolean isValue() {
+		return type == DOUBLE || type == LONG || type == BOOLEAN || type == DOUBLES;
+	}
+
+	// Returns number of values in the frame.
+	public int getCount() {
+		switch (type) {
+			case DOUBLE:
+			case LONG:
+			case BOOLEAN:
+				return 1;
+			case DOUBLES:
+				return payloadLength / 8;
+			default:
+				return 0;
+		}
+	}
+
+	// Returns value at the index as a number. Boolean values are returned as 1 or 0.
+	public double getNumber(int index) {
+		switch (type) {
+			case DOUBLE:
+				return buffer.getDouble(payloadStart);
+			case LONG:
+				return buffer.getLong(payloadStart);
+			case BOOLEAN:
+				return buffer.get(payloadStart) != 0 ? 1 : 0;
+			case DOUBLES:
+				if (index < 0 || index >= getCount()) {
+					throw new IndexOutOfBoundsException("Frame contains " + getCount() + " values");
+				}
+				return buffer.getDouble(payloadStart + index * 8);
+			default:
+				throw new IllegalStateException("Frame of type " + type + " does not contain value");
+		}
+	}
+
+	public double getNumber() {
+		return getNumber(0);
+	}
+
+	// Returns payload decoded as UTF-8 text (ie. error message).
+	public String getText() {
+		return getText(0);
+	}
+
+	public String getText(int offset) {
+		byte[] data = new byte[payloadLength - offset];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = buffer.get(payloadStart + offset + i);
+		}
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	private boolean ensure(int size) throws IOException {
+		if (buffer.remaining() >= size) {
+			return true;
+		}
+		if (buffer.capacity() < size) {
+			ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(size, buffer.capacity() * 2));
+			bigger.put(buffer);
+			bigger.flip();
+			buffer = bigger;
+		}
+		while (buffer.remaining() < size) {
+			buffer.compact();
+			int read = channel.read(buffer);
+			buffer.flip();
+			if (read < 0) {
+				frameEnd = buffer.position();
+				return false;
+			}
+		}
+		frameEnd = buffer.position();
+		return true;
+	}
+
+	// Frame handler keeping the last value received from the script converted to the value type.
+	public static class LastValue
+			implements FrameHandler {
+
+		private final ValueType valueType;
+		private IValue value = null;
+
+		public LastValue(ValueType valueType) {
+			this.valueType = valueType;
+		}
+
+		public IValue getValue() {
+			return value;
+		}
+
+		@Override
+		public void handle(FrameReader frame) {
+			if (frame.isValue()) {
+				value = valueType.create(frame.getNumber(), frame.getTimestamp());
+			} else if (frame.getType() == ERROR) {
+				throw new IllegalStateException("Script failed: " + frame.getText());
+			}
+		}
+	}
+
+	public interface FrameHandler {
+
+		// Frame content is valid only until this method returns.
+		void handle(FrameReader frame) throws IOException;
+	}
+}
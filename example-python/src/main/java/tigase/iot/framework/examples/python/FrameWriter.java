@@ -0,0 +1,94 @@
+/*
+ * FrameWriter.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// Writes binary frames sent to the python script. For description of the frame format see FrameReader.
+public class FrameWriter {
+
+	private final ByteBuffer buffer;
+	private final WritableByteChannel channel;
+	private final OutputStream out;
+
+	public FrameWriter(OutputStream out) {
+		this(out, 4096);
+	}
+
+	// Stream is flushed after each frame, as streams of child processes are buffered.
+	public FrameWriter(OutputStream out, int bufferSize) {
+		this.out = out;
+		this.channel = Channels.newChannel(out);
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	// Sends request to read value with arguments for the script.
+	public void writeRequest(String... args) throws IOException {
+		byte[] text = join(args);
+		start(FrameReader.REQUEST, text.length);
+		buffer.put(text);
+		flush();
+	}
+
+	// Sends command to set value of the device with arguments for the script.
+	public void writeCommand(double value, String... args) throws IOException {
+		byte[] text = join(args);
+		start(FrameReader.COMMAND, 8 + text.length);
+		buffer.putDouble(value);
+		buffer.put(text);
+		flush();
+	}
+
+	// Sends new value of the configuration parameter to the running script.
+	public void writeControl(String name, String value) throws IOException {
+		byte[] text = join(name, value);
+		start(FrameReader.CONTROL, text.length);
+		buffer.put(text);
+		flush();
+	}
+
+	private void start(byte type, int payloadLength) {
+		if (payloadLength + 4 + FrameReader.HEADER_SIZE > buffer.capacity()) {
+			throw new IllegalArgumentException("Frame too big: " + payloadLength);
+		}
+		buffer.clear();
+		buffer.putInt(FrameReader.HEADER_SIZE + payloadLength);
+		buffer.put(type);
+		buffer.putLong(System.currentTimeMillis());
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		out.flush();
+	}
+
+	private static byte[] join(String... args) {
+		return args == null ? new byte[0] : String.join("\t", args).getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * LineReader.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// Reads lines from the output of the python process into a reused byte buffer.
+//
+// Each line is passed to the LineHandler as a fragment of the internal buffer (without line terminator), so no
+// String instance is created for it. Data passed to the handler is valid only until handler returns.
+public class LineReader {
+
+	private final InputStream in;
+	private byte[] buf;
+	private int end = 0;
+	private int start = 0;
+
+	public LineReader(InputStream in) {
+		this(in, 256);
+	}
+
+	public LineReader(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buf = new byte[bufferSize];
+	}
+
+	// Reads next line and passes it to the handler. Returns false if end of stream was reached.
+	public boolean readLine(LineHandler handler) throws IOException {
+		int scanned = 0;
+		while (true) {
+			for (int i = start + scanned; i < end; i++) {
+				if (buf[i] == '\n') {
+					int lineStart = start;
+					start = i + 1;
+					handler.handle(buf, lineStart, trimmedLength(lineStart, i));
+					return true;
+				}
+			}
+			scanned = end - start;
+			if (!fill()) {
+				if (start < end) {
+					int lineStart = start;
+					start = end;
+					handler.handle(buf, lineStart, trimmedLength(lineStart, end));
+					return true;
+				}
+				return false;
+			}
+		}
+	}
+
+	// Reads lines until the end of stream.
+	public void readLines(LineHandler handler) throws IOException {
+		while (readLine(handler)) {
+			// nothing to do
+		}
+	}
+
+	private int trimmedLength(int lineStart, int lineEnd) {
+		if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+			lineEnd--;
+		}
+		return lineEnd - lineStart;
+	}
+
+	private boolean fill() throws IOException {
+		if (start > 0) {
+			System.arraycopy(buf, start, buf, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+		if (end == buf.length) {
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		int read = in.read(buf, end, buf.length - end);
+		if (read < 0) {
+			return false;
+		}
+		end += read;
+		return true;
+	}
+
+	public interface LineHandler {
+
+		void handle(byte[] buf, int off, int len);
+	}
+}
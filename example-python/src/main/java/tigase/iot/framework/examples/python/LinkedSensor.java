@@ -0,0 +1,165 @@
+/*
+ * LinkedSensor.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import tigase.iot.framework.devices.AbstractSensor;
+import tigase.iot.framework.devices.IConfigurationAware;
+import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.DriverMetrics;
+import tigase.iot.framework.examples.common.UpdatePublisher;
+import tigase.iot.framework.examples.common.ValueType;
+import tigase.kernel.beans.config.ConfigField;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Sensor which values are read by ExamplePeriodSensor with the same `link`, so values of chips measuring several
+// quantities at once (ie. temperature, humidity and pressure of BME280) are read by a single execution of the script
+// and passed to separate sensors in the same cycle.
+//
+// Value with the configured `key` is taken from the script output in the format of the linked ExamplePeriodSensor
+// (key-value or json). In binary protocol key is an index of the value in the DOUBLES frame sent by the script, while
+// value at index 0 is used by the linked ExamplePeriodSensor itself.
+//
+// T needs to be a class representing a value returned by this sensor (see ExamplePeriodSensor).
+public class LinkedSensor<T extends IValue>
+		extends AbstractSensor<T>
+		implements IConfigurationAware {
+
+	private static final Map<String, List<LinkedSensor<?>>> links = new ConcurrentHashMap<>();
+
+	@ConfigField(desc = "Name of the link of the sensor executing the script")
+	private String link = "";
+	@ConfigField(desc = "Bean name")
+	private String name;
+	@ConfigField(desc = "Name of the value in the script output (index of the value in binary protocol)")
+	private String key = "value";
+	@ConfigField(desc = "Type of the value (humidity, light, movement, pressure or temperature)")
+	private String valueType = "temperature";
+	// Updates of values may be delayed by up to `publishWindow` milliseconds to be published together with updates of
+	// other drivers (see UpdatePublisher).
+	@ConfigField(desc = "Time in milliseconds for which updates may be delayed to publish them in batches (0 - no delay)")
+	private Long publishWindow = 0L;
+
+	// Metrics of the driver available over JMX (see DriverMetrics).
+	private final DriverMetrics metrics = new DriverMetrics(this);
+	private ValueDecoder decoder = null;
+	private String decoderFormat = null;
+	private boolean initialized = false;
+
+	// Returns sensors linked to the sensor with the given link.
+	public static List<LinkedSensor<?>> getLinked(String link) {
+		List<LinkedSensor<?>> linked = link == null || link.isEmpty() ? null : links.get(link);
+		return linked == null ? Collections.emptyList() : linked;
+	}
+
+	public LinkedSensor() {
+		// Type, name and label should be set the same way as in ExamplePeriodSensor.
+		super(null, null, null);
+	}
+
+	@Override
+	public void initialize() {
+		super.initialize();
+		metrics.register(name);
+		synchronized (this) {
+			initialized = true;
+			links.computeIfAbsent(link, name -> new CopyOnWriteArrayList<>()).add(this);
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		synchronized (this) {
+			initialized = false;
+			unlink();
+		}
+		metrics.unregister();
+		super.beforeUnregister();
+	}
+
+	public synchronized void setLink(String link) {
+		if (initialized) {
+			unlink();
+			links.computeIfAbsent(link, name -> new CopyOnWriteArrayList<>()).add(this);
+		}
+		this.link = link;
+	}
+
+	public synchronized void setKey(String key) {
+		this.key = key;
+		this.decoder = null;
+	}
+
+	public synchronized void setValueType(String valueType) {
+		ValueType.parse(valueType);
+		this.valueType = valueType;
+		this.decoder = null;
+	}
+
+	public DriverMetrics getMetrics() {
+		return metrics;
+	}
+
+	public synchronized ValueType getType() {
+		return ValueType.parse(valueType);
+	}
+
+	// Returns index of the value in the DOUBLES frame or -1 if key is not a number.
+	public synchronized int getIndex() {
+		try {
+			return Integer.parseInt(key);
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	// Returns decoder of the value from the script output in the given format.
+	public synchronized ValueDecoder getDecoder(String format) {
+		if (decoder == null || !format.equals(decoderFormat)) {
+			decoder = ValueDecoder.create(format, key, ValueType.parse(valueType));
+			decoderFormat = format;
+		}
+		return decoder;
+	}
+
+	// Called by the linked sensor with the value read from the script.
+	@SuppressWarnings("unchecked")
+	public void received(IValue value) {
+		metrics.received();
+		publish((T) value);
+	}
+
+	private void unlink() {
+		List<LinkedSensor<?>> linked = links.get(link);
+		if (linked != null) {
+			linked.remove(this);
+		}
+	}
+
+	// Passes new value to the UpdatePublisher, which will call updateValue().
+	protected void publish(T value) {
+		UpdatePublisher.getInstance().publish(this, value, publishWindow, this::updateValue);
+	}
+}
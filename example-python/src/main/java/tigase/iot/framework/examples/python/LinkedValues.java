@@ -0,0 +1,115 @@
+/*
+ * LinkedValues.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.ValueType;
+
+import java.util.List;
+
+// Handler of the script output keeping the last value of the sensor and the last values of its linked sensors (see
+// LinkedSensor) decoded from the same execution of the script. Values of the linked sensors are passed to them by
+// dispatch() after the script finishes.
+public class LinkedValues
+		implements LineReader.LineHandler, FrameReader.FrameHandler {
+
+	private final ValueDecoder decoder;
+	private final ValueDecoder[] decoders;
+	private final int[] indexes;
+	private final List<LinkedSensor<?>> linked;
+	private final Runnable onError;
+	private final ValueType[] types;
+	private final ValueType valueType;
+	private IValue value = null;
+	private final IValue[] values;
+
+	// Creates handler of the text output decoded in the format of the given decoder. Lines which could not be decoded
+	// are skipped and reported to `onError`.
+	public LinkedValues(ValueDecoder decoder, String format, List<LinkedSensor<?>> linked, Runnable onError) {
+		this(decoder, decoder.getValueType(), linked, onError);
+		for (int i = 0; i < linked.size(); i++) {
+			decoders[i] = linked.get(i).getDecoder(format);
+		}
+	}
+
+	// Creates handler of the binary output.
+	public LinkedValues(ValueType valueType, List<LinkedSensor<?>> linked) {
+		this(null, valueType, linked, () -> {});
+		for (int i = 0; i < linked.size(); i++) {
+			indexes[i] = linked.get(i).getIndex();
+			types[i] = linked.get(i).getType();
+		}
+	}
+
+	private LinkedValues(ValueDecoder decoder, ValueType valueType, List<LinkedSensor<?>> linked,
+						 Runnable onError) {
+		this.decoder = decoder;
+		this.onError = onError;
+		this.valueType = valueType;
+		this.linked = linked;
+		this.decoders = new ValueDecoder[linked.size()];
+		this.indexes = new int[linked.size()];
+		this.types = new ValueType[linked.size()];
+		this.values = new IValue[linked.size()];
+	}
+
+	// Returns value of the sensor executing the script.
+	public IValue getValue() {
+		return value;
+	}
+
+	@Override
+	public void handle(byte[] buf, int off, int len) {
+		IValue decoded = decoder.decode(buf, off, len, onError);
+		if (decoded != null) {
+			value = decoded;
+		}
+		for (int i = 0; i < decoders.length; i++) {
+			decoded = decoders[i].decode(buf, off, len, onError);
+			if (decoded != null) {
+				values[i] = decoded;
+			}
+		}
+	}
+
+	@Override
+	public void handle(FrameReader frame) {
+		if (frame.isValue()) {
+			value = valueType.create(frame.getNumber(), frame.getTimestamp());
+			for (int i = 0; i < indexes.length; i++) {
+				if (indexes[i] >= 0 && indexes[i] < frame.getCount()) {
+					values[i] = types[i].create(frame.getNumber(indexes[i]), frame.getTimestamp());
+				}
+			}
+		} else if (frame.getType() == FrameReader.ERROR) {
+			throw new IllegalStateException("Script failed: " + frame.getText());
+		}
+	}
+
+	// Passes values read from the script to the linked sensors.
+	public void dispatch() {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				linked.get(i).received(values[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * NumberParser.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+// Parses numbers directly from the bytes of the script output, without creating String instances.
+//
+// Supported are decimal numbers with optional sign, fraction and exponent (ie. -12.5, 1013, 2.1e3) and boolean
+// values "true" and "false" (parsed as 1 and 0).
+public class NumberParser {
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	// Returns index of the first byte after the number starting at `off` or -1 if there is no number at `off`.
+	public static int numberEnd(byte[] buf, int off, int end) {
+		int i = off;
+		if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+			i++;
+		}
+		if (matches(buf, i, end, "true")) {
+			return i + 4;
+		}
+		if (matches(buf, i, end, "false")) {
+			return i + 5;
+		}
+		int digits = 0;
+		while (i < end && (isDigit(buf[i]) || buf[i] == '.')) {
+			digits++;
+			i++;
+		}
+		if (digits == 0) {
+			return -1;
+		}
+		if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+			i++;
+			if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+				i++;
+			}
+			while (i < end && isDigit(buf[i])) {
+				i++;
+			}
+		}
+		return i;
+	}
+
+	public static double parseDouble(byte[] buf, int off, int len) {
+		int end = off + len;
+		while (off < end && isWhitespace(buf[off])) {
+			off++;
+		}
+		while (end > off && isWhitespace(buf[end - 1])) {
+			end--;
+		}
+		if (off == end) {
+			throw new NumberFormatException("Empty value");
+		}
+		if (matches(buf, off, end, "true") && end - off == 4) {
+			return 1;
+		}
+		if (matches(buf, off, end, "false") && end - off == 5) {
+			return 0;
+		}
+
+		int i = off;
+		boolean negative = false;
+		if (buf[i] == '-' || buf[i] == '+') {
+			negative = buf[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean fraction = false;
+		for (; i < end; i++) {
+			byte b = buf[i];
+			if (isDigit(b)) {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					digits++;
+					if (fraction) {
+						exponent--;
+					}
+				} else if (!fraction) {
+					exponent++;
+				}
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else if (b == 'e' || b == 'E') {
+				exponent += parseExponent(buf, i + 1, end);
+				i = end;
+			} else {
+				throw invalid(buf, off, end);
+			}
+		}
+		if (digits == 0) {
+			throw invalid(buf, off, end);
+		}
+
+		double value = mantissa;
+		if (exponent < 0) {
+			value = -exponent < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-exponent] : value * Math.pow(10,
+																												exponent);
+		} else if (exponent > 0) {
+			value = exponent < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[exponent] : value * Math.pow(10,
+																											exponent);
+		}
+		return negative ? -value : value;
+	}
+
+	private static int parseExponent(byte[] buf, int off, int end) {
+		boolean negative = false;
+		if (off < end && (buf[off] == '-' || buf[off] == '+')) {
+			negative = buf[off] == '-';
+			off++;
+		}
+		if (off == end) {
+			throw invalid(buf, off, end);
+		}
+		int exponent = 0;
+		for (; off < end; off++) {
+			if (!isDigit(buf[off])) {
+				throw invalid(buf, off, end);
+			}
+			exponent = Math.min(exponent * 10 + (buf[off] - '0'), 1000);
+		}
+		return negative ? -exponent : exponent;
+	}
+
+	private static NumberFormatException invalid(byte[] buf, int off, int end) {
+		return new NumberFormatException("Invalid number: " + new String(buf, off, end - off));
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private static boolean matches(byte[] buf, int off, int end, String text) {
+		if (end - off < text.length()) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (buf[off + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * OutputReactor.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Reads output of many python processes using a small fixed number of threads.
+//
+// Output streams of processes are not selectable, so each reactor thread checks registered processes in turn and
+// reads only data which is already available, so it never blocks on a single process. Complete records (lines or
+// frames) are passed to the RecordDecoder of the process. If there is no data available in any of the processes,
+// thread waits with a backoff from 1 up to `maxIdleWait` milliseconds, which is a maximal delay added to the
+// delivery of the output of idle processes.
+//
+// Number of threads may be set using `tigase.iot.examples.reactor.threads` system property (default 1) and maximal
+// wait using `tigase.iot.examples.reactor.maxIdleWait` (default 20 ms).
+public class OutputReactor {
+
+	private static final Logger log = Logger.getLogger(OutputReactor.class.getCanonicalName());
+
+	private static OutputReactor instance = null;
+
+	private final long maxIdleWait;
+	private final AtomicInteger next = new AtomicInteger();
+	private final Worker[] workers;
+
+	public static synchronized OutputReactor getInstance() {
+		if (instance == null) {
+			instance = new OutputReactor(Integer.getInteger("tigase.iot.examples.reactor.threads", 1),
+										 Long.getLong("tigase.iot.examples.reactor.maxIdleWait", 20));
+		}
+		return instance;
+	}
+
+	public OutputReactor(int threads, long maxIdleWait) {
+		this.maxIdleWait = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxIdleWait));
+		this.workers = new Worker[Math.max(1, threads)];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker("output-reactor-" + i);
+		}
+	}
+
+	// Decoder passing each line of the output to the handler (see LineReader).
+	public static RecordDecoder lines(LineReader.LineHandler handler) {
+		return (buf, off, len, eof) -> {
+			int start = off;
+			int end = off + len;
+			for (int i = off; i < end; i++) {
+				if (buf[i] == '\n') {
+					handler.handle(buf, start, trimmedLength(buf, start, i));
+					start = i + 1;
+				}
+			}
+			if (eof && start < end) {
+				handler.handle(buf, start, trimmedLength(buf, start, end));
+				start = end;
+			}
+			return start - off;
+		};
+	}
+
+	// Decoder passing each frame of the output to the handler (see FrameReader).
+	public static RecordDecoder frames(FrameReader.FrameHandler handler) {
+		// frames are read by the reactor, so reader does not need a channel
+		FrameReader reader = new FrameReader(null, 256);
+		return (buf, off, len, eof) -> {
+			int pos = off;
+			int end = off + len;
+			while (end - pos >= 4) {
+				int length = ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16) | ((buf[pos + 2] & 0xff) << 8) |
+						(buf[pos + 3] & 0xff);
+				if (length < FrameReader.HEADER_SIZE || length > FrameReader.MAX_FRAME_SIZE) {
+					// stream cannot be resynchronized, so reading of the output is stopped
+					throw new IOException("Invalid frame length: " + length);
+				}
+				if (end - pos < 4 + length) {
+					break;
+				}
+				reader.wrap(buf, pos, 4 + length);
+				pos += 4 + length;
+				handler.handle(reader);
+			}
+			return pos - off;
+		};
+	}
+
+	private static int trimmedLength(byte[] buf, int lineStart, int lineEnd) {
+		if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+			lineEnd--;
+		}
+		return lineEnd - lineStart;
+	}
+
+	// Registers process which output should be read. When the process exits and its output is read, `onExit` is
+	// called with the exit code of the process.
+	public Registration register(Process process, RecordDecoder decoder, IntConsumer onExit) {
+		Worker worker = workers[Math.floorMod(next.getAndIncrement(), workers.length)];
+		Registration registration = new Registration(worker, process, decoder, onExit);
+		worker.add(registration);
+		return registration;
+	}
+
+	// Returns number of processes which output is read by the reactor.
+	public int getRegistered() {
+		int count = 0;
+		for (Worker worker : workers) {
+			count += worker.registrations.size();
+		}
+		return count;
+	}
+
+	public interface RecordDecoder {
+
+		// Passes complete records from the buffer to the handler and returns number of consumed bytes. Remaining
+		// bytes will be passed again when more data is read. If `eof` is true, no more data will be read.
+		int decode(byte[] buf, int off, int len, boolean eof) throws IOException;
+	}
+
+	public static class Registration {
+
+		private final RecordDecoder decoder;
+		private final InputStream in;
+		private final IntConsumer onExit;
+		private final Process process;
+		private final Worker worker;
+		private byte[] buf = new byte[256];
+		private int end = 0;
+
+		private Registration(Worker worker, Process process, RecordDecoder decoder, IntConsumer onExit) {
+			this.worker = worker;
+			this.process = process;
+			this.in = process.getInputStream();
+			this.decoder = decoder;
+			this.onExit = onExit;
+		}
+
+		// Stops reading output of the process. Process is not destroyed and `onExit` will not be called.
+		public void cancel() {
+			worker.remove(this);
+		}
+
+		// Reads available data. Returns number of bytes read or -1 if process exited and its output was read.
+		private int poll() throws IOException {
+			int available = in.available();
+			if (available == 0) {
+				if (process.isAlive()) {
+					return 0;
+				}
+				// output written just before the exit may become available after the first check
+				available = in.available();
+			}
+			int read;
+			if (available > 0) {
+				if (end + available > buf.length) {
+					buf = Arrays.copyOf(buf, Math.max(end + available, buf.length * 2));
+				}
+				read = in.read(buf, end, available);
+			} else {
+				// Process exited and there is no more data. Pipe may still be kept open by a child of the process, so
+				// it is not read as it could block the reactor thread - stream is closed instead.
+				read = -1;
+			}
+			boolean eof = read < 0;
+			if (!eof) {
+				end += read;
+			}
+			int consumed = decoder.decode(buf, 0, end, eof);
+			if (consumed > 0) {
+				System.arraycopy(buf, consumed, buf, 0, end - consumed);
+				end -= consumed;
+			}
+			return read;
+		}
+	}
+
+	private class Worker
+			implements Runnable {
+
+		private final String name;
+		private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+		private Thread thread = null;
+
+		private Worker(String name) {
+			this.name = name;
+		}
+
+		private synchronized void add(Registration registration) {
+			registrations.add(registration);
+			if (thread == null) {
+				thread = new Thread(this, name);
+				thread.setDaemon(true);
+				thread.start();
+			} else {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		private synchronized void remove(Registration registration) {
+			registrations.remove(registration);
+		}
+
+		@Override
+		public void run() {
+			long idleWait = 0;
+			while (true) {
+				boolean active = false;
+				for (Registration registration : registrations) {
+					int read;
+					try {
+						read = registration.poll();
+					} catch (IOException | RuntimeException ex) {
+						log.log(Level.WARNING, "Could not read output of python process", ex);
+						registration.process.destroy();
+						read = -1;
+					}
+					if (read > 0) {
+						active = true;
+					} else if (read < 0 && registrations.remove(registration)) {
+						exited(registration);
+					}
+				}
+				if (active) {
+					idleWait = 0;
+					continue;
+				}
+				synchronized (this) {
+					if (registrations.isEmpty()) {
+						thread = null;
+						return;
+					}
+				}
+				idleWait = Math.min(maxIdleWait, Math.max(TimeUnit.MILLISECONDS.toNanos(1), idleWait * 2));
+				LockSupport.parkNanos(this, idleWait);
+			}
+		}
+
+		private void exited(Registration registration) {
+			try {
+				registration.in.close();
+				registration.onExit.accept(registration.process.waitFor());
+			} catch (IOException | InterruptedException | RuntimeException ex) {
+				log.log(Level.FINE, "Could not complete handling of python process exit", ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * ProcessWatchdog.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Kills python processes which did not finish within the timeout.
+//
+// Single watchdog thread is shared by all drivers. When the timeout expires, process is asked to terminate and if it
+// is still alive after `grace` milliseconds it is killed forcibly.
+//
+// Output of scripts executed with waitFor() is read with blocking reads. When the timeout expires, watchdog thread kills
+// the process and closes its output. Output which is still open in other processes (ie. started by the script in the
+// background) would still block the read, so output of scripts with a timeout is read by a pool of reader threads and
+// the reader is cancelled at the deadline - waitFor() then returns even if the reader stays blocked until the output
+// is closed by all processes. Process is always terminated and waited for when waitFor() completes, even if its output
+// could not be handled.
+//
+// Grace period may be set using `tigase.iot.examples.watchdog.grace` system property (default 1000 ms).
+public class ProcessWatchdog {
+
+	private static final Logger log = Logger.getLogger(ProcessWatchdog.class.getCanonicalName());
+
+	private static ProcessWatchdog instance = null;
+
+	private final ScheduledExecutorService executor;
+	private final long grace;
+	private final AtomicLong killed = new AtomicLong();
+	private final ExecutorService readers;
+
+	public static synchronized ProcessWatchdog getInstance() {
+		if (instance == null) {
+			instance = new ProcessWatchdog(Long.getLong("tigase.iot.examples.watchdog.grace", 1000));
+		}
+		return instance;
+	}
+
+	public ProcessWatchdog(long grace) {
+		this.grace = grace;
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "process-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicInteger readerId = new AtomicInteger();
+		this.readers = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "process-output-" + readerId.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// Returns number of processes killed by the watchdog.
+	public long getKilled() {
+		return killed.get();
+	}
+
+	// Starts watching the process. If watch is not cancelled within `timeout` milliseconds, process is killed.
+	// Timeout of 0 or less means no timeout.
+	public Watch watch(Process process, long timeout) {
+		Watch watch = new Watch(process);
+		if (timeout > 0) {
+			watch.future = executor.schedule(() -> expire(watch), timeout, TimeUnit.MILLISECONDS);
+		}
+		return watch;
+	}
+
+	// Passes output of the process to the action and waits for the process to exit. If it does not exit within
+	// `timeout` milliseconds (0 - no timeout) it is killed and ScriptTimeoutException is thrown. If the action fails,
+	// process is terminated before the exception is rethrown.
+	public int waitFor(Process process, long timeout, ProcessAction action) throws IOException, InterruptedException {
+		Watch watch = watch(process, timeout);
+		try {
+			try (InputStream in = process.getInputStream()) {
+				if (timeout > 0) {
+					read(watch, in, action);
+				} else {
+					action.execute(in);
+				}
+			} catch (IOException | CancellationException ex) {
+				// output is closed and reader is cancelled when the process is killed by the watchdog
+				if (watch.isExpired()) {
+					throw new ScriptTimeoutException("Python script did not finish in " + timeout + " ms", ex);
+				}
+				throw ex;
+			}
+			int result = process.waitFor();
+			if (watch.isExpired()) {
+				throw new ScriptTimeoutException("Python script did not finish in " + timeout + " ms");
+			}
+			return result;
+		} finally {
+			watch.cancel();
+			terminate(process);
+		}
+	}
+
+	// Action reading output of the process until it is closed and ignoring it.
+	public static void discard(InputStream in) throws IOException {
+		byte[] buf = new byte[256];
+		while (in.read(buf) >= 0) {
+			// output is not used
+		}
+	}
+
+	// Passes output to the action executed by a reader thread, which may be cancelled by the watchdog.
+	private void read(Watch watch, InputStream in, ProcessAction action) throws IOException, InterruptedException {
+		Future<?> reader = readers.submit(() -> {
+			action.execute(in);
+			return null;
+		});
+		watch.setOutput(in, reader);
+		try {
+			reader.get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Could not read output of python script", cause);
+		} finally {
+			reader.cancel(true);
+		}
+	}
+
+	private void expire(Watch watch) {
+		watch.expire();
+		kill(watch.process);
+	}
+
+	private void kill(Process process) {
+		killed.incrementAndGet();
+		log.log(Level.FINE, "Python process did not finish in time, terminating it");
+		process.destroy();
+		executor.schedule(() -> {
+			if (process.isAlive()) {
+				process.destroyForcibly();
+			}
+		}, grace, TimeUnit.MILLISECONDS);
+	}
+
+	// Terminates the process if it is still running and waits for it to exit, so it does not outlive the request.
+	private void terminate(Process process) throws InterruptedException {
+		if (!process.isAlive()) {
+			return;
+		}
+		process.destroy();
+		try {
+			if (!process.waitFor(grace, TimeUnit.MILLISECONDS)) {
+				process.destroyForcibly().waitFor();
+			}
+		} catch (InterruptedException ex) {
+			process.destroyForcibly();
+			throw ex;
+		}
+	}
+
+	public interface ProcessAction {
+
+		void execute(InputStream in) throws IOException;
+	}
+
+	public static class Watch {
+
+		private final Process process;
+		private volatile boolean expired = false;
+		private ScheduledFuture<?> future = null;
+		private InputStream output = null;
+		private Future<?> reader = null;
+
+		private Watch(Process process) {
+			this.process = process;
+		}
+
+		public boolean isExpired() {
+			return expired;
+		}
+
+		// Throws ScriptTimeoutException if the process was killed by the watchdog.
+		public void check() throws ScriptTimeoutException {
+			if (expired) {
+				throw new ScriptTimeoutException("Python script did not finish in time");
+			}
+		}
+
+		public void cancel() {
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+
+		// Sets output of the process and its reader, which are closed and cancelled when the timeout expires.
+		private synchronized void setOutput(InputStream output, Future<?> reader) {
+			this.output = output;
+			this.reader = reader;
+			if (expired) {
+				release();
+			}
+		}
+
+		private synchronized void expire() {
+			expired = true;
+			release();
+		}
+
+		private void release() {
+			if (reader != null) {
+				reader.cancel(true);
+			}
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException ex) {
+					log.log(Level.FINE, "Could not close output of python process", ex);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * PythonWorker.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Long-lived python process which executes requests sent to it over stdin.
+//
+// Instead of starting a new interpreter for every read, the script is started once with `--worker` argument and
+// then each request is sent as a single line with arguments separated by a tab character. Script is expected to
+// write its output followed by an empty line, which marks the end of the response. If the process dies it will be
+// started again on the next request.
+//
+// In binary mode script is started with additional `--binary` argument and requests and responses are exchanged as
+// binary frames (see FrameReader), with exactly one frame sent in response to each request.
+//
+// Python scripts may use `tigase_iot_worker.py` helper (shipped in the `python` directory of the distribution)
+// which implements this protocol.
+public class PythonWorker {
+
+	private static final Logger log = Logger.getLogger(PythonWorker.class.getCanonicalName());
+
+	private static final Map<String, PythonWorker> workers = new HashMap<>();
+
+	private final boolean binary;
+	private final List<String> command;
+	private final String script;
+	private FrameReader frameReader = null;
+	private FrameWriter frameWriter = null;
+	private Process process = null;
+	private LineReader reader = null;
+	private int references = 0;
+	private long restarts = 0;
+	private boolean started = false;
+	private BufferedWriter writer = null;
+
+	// Returns worker for the script, shared by all drivers using the same script. Each call needs to be matched
+	// with a call to release().
+	public static PythonWorker acquire(String script) {
+		return acquire(ScriptCommand.DEFAULT_INTERPRETER, script, false);
+	}
+
+	public static PythonWorker acquire(String interpreter, String script, boolean binary) {
+		List<String> command = ScriptCommand.create(interpreter, script, true, binary);
+		synchronized (workers) {
+			PythonWorker worker = workers.computeIfAbsent(String.join(" ", command),
+														  key -> new PythonWorker(script, binary, command));
+			worker.references++;
+			return worker;
+		}
+	}
+
+	protected PythonWorker(String script, boolean binary, List<String> command) {
+		this.script = script;
+		this.binary = binary;
+		this.command = command;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	public String getScript() {
+		return script;
+	}
+
+	public synchronized long getRestarts() {
+		return restarts;
+	}
+
+	public void release() {
+		synchronized (workers) {
+			if (--references > 0) {
+				return;
+			}
+			workers.remove(String.join(" ", command), this);
+		}
+		stop();
+	}
+
+	// Sends request to the worker and waits for the response. If worker is not running or dies while processing
+	// request, it is restarted and request is retried once.
+	public String request(String... args) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		request((buf, off, len) -> sb.append(new String(buf, off, len, StandardCharsets.UTF_8))
+				.append(System.lineSeparator()), args);
+		return sb.toString();
+	}
+
+	// Sends request to the worker and passes each line of the response to the handler.
+	public void request(LineReader.LineHandler handler, String... args) throws IOException {
+		request(0, handler, args);
+	}
+
+	// Sends request to the worker and passes each line of the response to the handler. If response is not received
+	// within `timeout` milliseconds, worker is killed and ScriptTimeoutException is thrown.
+	public void request(long timeout, LineReader.LineHandler handler, String... args) throws IOException {
+		if (binary) {
+			throw new IllegalStateException("Python worker for " + script + " uses binary protocol");
+		}
+		exchange(timeout, () -> {
+			writer.write(String.join("\t", args));
+			writer.newLine();
+			writer.flush();
+			readResponse(handler);
+		});
+	}
+
+	// Sends request to the worker using binary protocol and passes the response frame to the handler.
+	public void request(FrameReader.FrameHandler handler, String... args) throws IOException {
+		request(0, handler, args);
+	}
+
+	public void request(long timeout, FrameReader.FrameHandler handler, String... args) throws IOException {
+		if (!binary) {
+			throw new IllegalStateException("Python worker for " + script + " uses text protocol");
+		}
+		exchange(timeout, () -> {
+			frameWriter.writeRequest(args);
+			if (!frameReader.next()) {
+				throw new EOFException("Python worker for " + script + " exited");
+			}
+			handler.handle(frameReader);
+		});
+	}
+
+	// Request which timed out is not retried, as it would most likely block the caller again.
+	private synchronized void exchange(long timeout, Exchange exchange) throws IOException {
+		IOException failure = null;
+		for (int attempt = 0; attempt < 2; attempt++) {
+			ProcessWatchdog.Watch watch = null;
+			try {
+				if (process == null || !process.isAlive()) {
+					start();
+				}
+				watch = ProcessWatchdog.getInstance().watch(process, timeout);
+				exchange.execute();
+				watch.check();
+				return;
+			} catch (ScriptErrorException ex) {
+				// worker is working properly, only the script could not handle the request
+				throw ex;
+			} catch (IOException ex) {
+				log.log(Level.FINE, "Python worker for " + script + " failed", ex);
+				failure = ex;
+				stop();
+				if (watch != null && watch.isExpired()) {
+					throw new ScriptTimeoutException("Python worker for " + script + " did not respond in time", ex);
+				}
+			} finally {
+				if (watch != null) {
+					watch.cancel();
+				}
+			}
+		}
+		throw failure;
+	}
+
+	public synchronized void stop() {
+		if (process != null) {
+			process.destroy();
+			process = null;
+			reader = null;
+			writer = null;
+			frameReader = null;
+			frameWriter = null;
+		}
+	}
+
+	protected void start() throws IOException {
+		if (started) {
+			restarts++;
+		}
+		stop();
+		started = true;
+		process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		if (binary) {
+			frameReader = new FrameReader(Channels.newChannel(process.getInputStream()));
+			frameWriter = new FrameWriter(process.getOutputStream());
+		} else {
+			reader = new LineReader(process.getInputStream());
+			writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+		}
+	}
+
+	private void readResponse(LineReader.LineHandler handler) throws IOException {
+		ResponseHandler response = new ResponseHandler(handler);
+		while (reader.readLine(response)) {
+			if (response.finished) {
+				if (response.error != null) {
+					throw new ScriptErrorException("Python script " + script + " failed: " + response.error);
+				}
+				return;
+			}
+		}
+		throw new EOFException("Python worker for " + script + " exited");
+	}
+
+	private interface Exchange {
+
+		void execute() throws IOException;
+	}
+
+	// Passes lines to the handler until empty line marking end of the response is read. Response starting with
+	// "error" and a tab character is not passed to the handler, but kept as an error reported by the script.
+	private static class ResponseHandler
+			implements LineReader.LineHandler {
+
+		private static final byte[] ERROR = "error\t".getBytes(StandardCharsets.UTF_8);
+
+		private final LineReader.LineHandler handler;
+		private String error = null;
+		private boolean finished = false;
+		private boolean first = true;
+
+		private ResponseHandler(LineReader.LineHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void handle(byte[] buf, int off, int len) {
+			if (len == 0) {
+				finished = true;
+			} else if (first && startsWith(buf, off, len, ERROR)) {
+				error = new String(buf, off + ERROR.length, len - ERROR.length, StandardCharsets.UTF_8);
+			} else if (error != null) {
+				error = error + System.lineSeparator() + new String(buf, off, len, StandardCharsets.UTF_8);
+			} else {
+				handler.handle(buf, off, len);
+			}
+			first = false;
+		}
+
+		private static boolean startsWith(byte[] buf, int off, int len, byte[] prefix) {
+			return len >= prefix.length && ValueDecoder.equals(buf, off, off + prefix.length, prefix);
+		}
+	}
+}
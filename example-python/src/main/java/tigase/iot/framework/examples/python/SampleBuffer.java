@@ -0,0 +1,139 @@
+/*
+ * SampleBuffer.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Lock-free bounded buffer placed between thread reading samples from the python process and thread publishing them.
+//
+// Buffer is designed for a single producer and a single consumer. Depending on the policy it keeps only the newest
+// sample (LATEST and SAMPLE) or up to `capacity` samples, dropping the oldest one when full (DROP_OLDEST).
+public class SampleBuffer<E> {
+
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicReference<E> latest = new AtomicReference<>();
+	private final int mask;
+	private final Policy policy;
+	private final AtomicReferenceArray<E> slots;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile Thread waiting = null;
+
+	public SampleBuffer(Policy policy, int capacity) {
+		this.policy = policy;
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.slots = policy == Policy.DROP_OLDEST ? new AtomicReferenceArray<>(size) : null;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	// Returns number of samples replaced by newer samples before they were published.
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	// Returns number of samples removed from the full buffer to make space for newer samples.
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public void offer(E sample) {
+		if (slots == null) {
+			if (latest.getAndSet(sample) != null) {
+				coalesced.incrementAndGet();
+			}
+		} else {
+			long t = tail.get();
+			long h;
+			while (t - (h = head.get()) > mask) {
+				if (head.compareAndSet(h, h + 1)) {
+					dropped.incrementAndGet();
+				}
+			}
+			slots.set((int) (t & mask), sample);
+			tail.set(t + 1);
+		}
+		Thread consumer = waiting;
+		if (consumer != null && policy != Policy.SAMPLE) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	public E poll() {
+		if (slots == null) {
+			return latest.getAndSet(null);
+		}
+		while (true) {
+			long h = head.get();
+			if (h == tail.get()) {
+				return null;
+			}
+			E sample = slots.get((int) (h & mask));
+			if (head.compareAndSet(h, h + 1)) {
+				return sample;
+			}
+		}
+	}
+
+	// Waits for the next sample but no longer than specified time. In SAMPLE mode it always waits for the whole
+	// period as samples are published at the fixed rate.
+	public E poll(long timeout, TimeUnit unit) {
+		E sample = policy == Policy.SAMPLE ? null : poll();
+		if (sample != null) {
+			return sample;
+		}
+		waiting = Thread.currentThread();
+		try {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			long remaining;
+			while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+				if (policy != Policy.SAMPLE && (sample = poll()) != null) {
+					return sample;
+				}
+				LockSupport.parkNanos(this, remaining);
+			}
+		} finally {
+			waiting = null;
+		}
+		return poll();
+	}
+
+	public enum Policy {
+		// only the newest sample is kept and it is published as soon as possible
+		LATEST,
+		// only the newest sample is kept and it is published at the fixed rate
+		SAMPLE,
+		// up to capacity samples are kept, oldest sample is dropped when buffer is full
+		DROP_OLDEST;
+
+		public static Policy parse(String name) {
+			return Policy.valueOf(name.trim().toUpperCase().replace('-', '_'));
+		}
+	}
+}
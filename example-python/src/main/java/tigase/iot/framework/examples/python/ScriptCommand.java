@@ -0,0 +1,51 @@
+/*
+ * ScriptCommand.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Builds command line used to start python script.
+//
+// Script is started by the configured interpreter (by default "python"), with `--worker` argument if it should keep
+// running and process requests sent to it and with `--binary` argument if it should use binary protocol.
+public class ScriptCommand {
+
+	public static final String DEFAULT_INTERPRETER = "python";
+
+	public static List<String> create(String interpreter, String script, boolean worker, boolean binary,
+									  String... args) {
+		List<String> command = new ArrayList<>();
+		command.add(interpreter == null ? DEFAULT_INTERPRETER : interpreter);
+		command.add(script);
+		if (worker) {
+			command.add("--worker");
+		}
+		if (binary) {
+			command.add("--binary");
+		}
+		if (args != null) {
+			command.addAll(Arrays.asList(args));
+		}
+		return command;
+	}
+}
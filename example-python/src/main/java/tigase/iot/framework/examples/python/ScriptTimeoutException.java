@@ -0,0 +1,36 @@
+/*
+ * ScriptTimeoutException.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.io.IOException;
+
+// Thrown when python script did not finish within the configured timeout and was killed.
+public class ScriptTimeoutException
+		extends IOException {
+
+	public ScriptTimeoutException(String message) {
+		super(message);
+	}
+
+	public ScriptTimeoutException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
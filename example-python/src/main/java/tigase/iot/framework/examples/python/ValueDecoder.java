@@ -0,0 +1,237 @@
+/*
+ * ValueDecoder.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import tigase.iot.framework.devices.IValue;
+import tigase.iot.framework.examples.common.ValueType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Converts a line of the script output to the instance of IValue.
+//
+// Following output formats are supported:
+// plain - line contains only a number, ie. "21.5"
+// key-value - line contains pairs separated by spaces, commas or semicolons, ie. "temperature=21.5 humidity=40"
+// json - line contains compact JSON object, ie. {"temperature": 21.5, "humidity": 40}
+//
+// For key-value and json formats, value for the configured key is used. Numbers are parsed directly from the bytes
+// of the line, so decoding of a sample does not create any String instances.
+public abstract class ValueDecoder {
+
+	private static final Logger log = Logger.getLogger(ValueDecoder.class.getCanonicalName());
+
+	private final ValueType valueType;
+
+	public static ValueDecoder create(String format, String key, ValueType valueType) {
+		switch (format) {
+			case "plain":
+				return new Plain(valueType);
+			case "key-value":
+				return new KeyValue(key, valueType);
+			case "json":
+				return new Json(key, valueType);
+			default:
+				throw new IllegalArgumentException("Unsupported output format: " + format);
+		}
+	}
+
+	protected ValueDecoder(ValueType valueType) {
+		this.valueType = valueType;
+	}
+
+	public ValueType getValueType() {
+		return valueType;
+	}
+
+	// Returns decoded value or null if line does not contain the value (ie. it is empty or configured key is missing).
+	public IValue decode(byte[] buf, int off, int len) {
+		int end = off + len;
+		while (off < end && NumberParser.isWhitespace(buf[off])) {
+			off++;
+		}
+		if (off == end) {
+			return null;
+		}
+		return decodeValue(buf, off, end);
+	}
+
+	// Returns decoded value like decode(), but line which could not be decoded (ie. "nan" or a warning printed by the
+	// script) is only logged and reported to `onError`, so a single malformed line does not stop reading of the output.
+	public IValue decode(byte[] buf, int off, int len, Runnable onError) {
+		try {
+			return decode(buf, off, len);
+		} catch (NumberFormatException ex) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Could not decode line of the script output: " +
+						new String(buf, off, len, StandardCharsets.UTF_8), ex);
+			}
+			onError.run();
+			return null;
+		}
+	}
+
+	protected abstract IValue decodeValue(byte[] buf, int off, int end);
+
+	protected IValue parseNumber(byte[] buf, int off, int end) {
+		int numberEnd = NumberParser.numberEnd(buf, off, end);
+		if (numberEnd < 0) {
+			throw new NumberFormatException("Invalid number: " + new String(buf, off, end - off));
+		}
+		return valueType.create(NumberParser.parseDouble(buf, off, numberEnd - off));
+	}
+
+	public static class Plain
+			extends ValueDecoder {
+
+		public Plain(ValueType valueType) {
+			super(valueType);
+		}
+
+		@Override
+		protected IValue decodeValue(byte[] buf, int off, int end) {
+			return getValueType().create(NumberParser.parseDouble(buf, off, end - off));
+		}
+	}
+
+	public static class KeyValue
+			extends ValueDecoder {
+
+		private final byte[] key;
+
+		public KeyValue(String key, ValueType valueType) {
+			super(valueType);
+			this.key = key.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		protected IValue decodeValue(byte[] buf, int off, int end) {
+			int i = off;
+			while (i < end) {
+				while (i < end && isSeparator(buf[i])) {
+					i++;
+				}
+				int keyStart = i;
+				while (i < end && buf[i] != '=' && !isSeparator(buf[i])) {
+					i++;
+				}
+				if (i < end && buf[i] == '=' && equals(buf, keyStart, i, key)) {
+					return parseNumber(buf, i + 1, end);
+				}
+				while (i < end && !isSeparator(buf[i])) {
+					i++;
+				}
+			}
+			return null;
+		}
+
+		private static boolean isSeparator(byte b) {
+			return b == ',' || b == ';' || NumberParser.isWhitespace(b);
+		}
+	}
+
+	public static class Json
+			extends ValueDecoder {
+
+		private final byte[] key;
+
+		public Json(String key, ValueType valueType) {
+			super(valueType);
+			this.key = key.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		protected IValue decodeValue(byte[] buf, int off, int end) {
+			for (int i = off; i < end; i++) {
+				if (buf[i] != '"') {
+					continue;
+				}
+				int keyStart = i + 1;
+				int keyEnd = keyStart;
+				while (keyEnd < end && buf[keyEnd] != '"') {
+					keyEnd++;
+				}
+				i = keyEnd;
+				int j = keyEnd + 1;
+				while (j < end && NumberParser.isWhitespace(buf[j])) {
+					j++;
+				}
+				if (j >= end || buf[j] != ':') {
+					// it was a string value, not a key
+					continue;
+				}
+				if (!equals(buf, keyStart, keyEnd, key)) {
+					continue;
+				}
+				j++;
+				while (j < end && (NumberParser.isWhitespace(buf[j]) || buf[j] == '"')) {
+					j++;
+				}
+				return parseNumber(buf, j, end);
+			}
+			return null;
+		}
+	}
+
+	// Line handler keeping the last value decoded from the script output.
+	public static class LastValue
+			implements LineReader.LineHandler {
+
+		private final ValueDecoder decoder;
+		private final Runnable onError;
+		private IValue value = null;
+
+		public LastValue(ValueDecoder decoder) {
+			this(decoder, () -> {});
+		}
+
+		// Lines which could not be decoded are skipped and reported to `onError`.
+		public LastValue(ValueDecoder decoder, Runnable onError) {
+			this.decoder = decoder;
+			this.onError = onError;
+		}
+
+		public IValue getValue() {
+			return value;
+		}
+
+		@Override
+		public void handle(byte[] buf, int off, int len) {
+			IValue decoded = decoder.decode(buf, off, len, onError);
+			if (decoded != null) {
+				value = decoded;
+			}
+		}
+	}
+
+	static boolean equals(byte[] buf, int off, int end, byte[] key) {
+		if (end - off != key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (buf[off + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
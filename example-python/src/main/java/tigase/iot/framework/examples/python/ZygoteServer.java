@@ -0,0 +1,405 @@
+/*
+ * ZygoteServer.java
+ *
+ * Tigase IoT Framework - Examples
+ * Copyright (C) 2011-2018 "Tigase, Inc." <office@tigase.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.iot.framework.examples.python;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Fork server which starts python scripts by forking a preloaded python process (zygote).
+//
+// Zygote is started once using `tigase_iot_zygote.py` helper with names of the modules which should be preloaded (ie.
+// smbus, RPi.GPIO or numpy) and then forks a new child for each execution of the script. Child executes the script
+// in the same way as if it was started from the command line (with the same arguments and exit code), so scripts do
+// not need to be modified, but starting of the interpreter and importing of preloaded modules happens only once.
+//
+// Each execution is represented by a Process, so it may be used in the same way as processes started by
+// ProcessBuilder (ie. with ProcessWatchdog). Output of all children is sent by the zygote over its stdout and passed
+// to the corresponding processes by a single reader thread. If zygote dies it is started again on the next execution.
+//
+// Path to the helper may be set using `tigase.iot.examples.zygote.script` system property (default
+// `python/tigase_iot_zygote.py`, as shipped in the distribution).
+public class ZygoteServer {
+
+	public static final String DEFAULT_SCRIPT = "python/tigase_iot_zygote.py";
+
+	private static final Logger log = Logger.getLogger(ZygoteServer.class.getCanonicalName());
+
+	private static final byte OUTPUT = 0x01;
+	private static final byte EXIT = 0x02;
+	private static final int SIGTERM = 15;
+	private static final int SIGKILL = 9;
+
+	private static final Map<String, ZygoteServer> servers = new HashMap<>();
+
+	private final Map<Integer, ZygoteProcess> children = new ConcurrentHashMap<>();
+	private final List<String> command;
+	private int nextId = 0;
+	private Process process = null;
+	private int references = 0;
+	private long restarts = 0;
+	private boolean started = false;
+	private BufferedWriter writer = null;
+
+	// Returns fork server for the interpreter with preloaded modules (separated by comma), shared by all drivers
+	// using the same configuration. Each call needs to be matched with a call to release().
+	public static ZygoteServer acquire(String interpreter, String preload) {
+		List<String> command = new ArrayList<>();
+		command.add(interpreter == null ? ScriptCommand.DEFAULT_INTERPRETER : interpreter);
+		command.add(System.getProperty("tigase.iot.examples.zygote.script", DEFAULT_SCRIPT));
+		if (preload != null) {
+			Arrays.stream(preload.split(",")).map(String::trim).filter(module -> !module.isEmpty()).forEach(command::add);
+		}
+		synchronized (servers) {
+			ZygoteServer server = servers.computeIfAbsent(String.join(" ", command), key -> new ZygoteServer(command));
+			server.references++;
+			return server;
+		}
+	}
+
+	protected ZygoteServer(List<String> command) {
+		this.command = command;
+	}
+
+	public synchronized long getRestarts() {
+		return restarts;
+	}
+
+	// Returns number of children which are still running.
+	public int getRunning() {
+		return children.size();
+	}
+
+	public void release() {
+		synchronized (servers) {
+			if (--references > 0) {
+				return;
+			}
+			servers.remove(String.join(" ", command), this);
+		}
+		stop();
+	}
+
+	// Executes python script in a new child of the zygote, with the same arguments as it would be started by
+	// ScriptCommand.
+	public Process start(String script, boolean binary, String... args) throws IOException {
+		List<String> argv = ScriptCommand.create(null, script, false, binary, args);
+		return start(argv.subList(1, argv.size()));
+	}
+
+	protected synchronized Process start(List<String> argv) throws IOException {
+		ensureStarted();
+		int id = ++nextId;
+		ZygoteProcess child = new ZygoteProcess(id);
+		children.put(id, child);
+		try {
+			writer.write("run\t" + id + "\t" + String.join("\t", argv));
+			writer.newLine();
+			writer.flush();
+		} catch (IOException ex) {
+			children.remove(id);
+			stop();
+			throw ex;
+		}
+		return child;
+	}
+
+	public synchronized void stop() {
+		if (process != null) {
+			log.log(Level.FINEST, "Stopping python zygote " + command);
+			process.destroy();
+			process = null;
+			writer = null;
+		}
+	}
+
+	private void ensureStarted() throws IOException {
+		if (process != null && process.isAlive()) {
+			return;
+		}
+		if (started) {
+			restarts++;
+			log.log(Level.FINE, "Restarting python zygote " + command);
+		}
+		started = true;
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		this.process = process;
+		this.writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+		Thread reader = new Thread(() -> readFrames(process), "python-zygote");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private synchronized void kill(int id, int signal) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.write("kill\t" + id + "\t" + signal);
+			writer.newLine();
+			writer.flush();
+		} catch (IOException ex) {
+			log.log(Level.FINE, "Could not send signal to the child of python zygote " + command, ex);
+		}
+	}
+
+	// Executed by the reader thread, passes output and exit codes sent by the zygote to the children.
+	private void readFrames(Process process) {
+		try (DataInputStream in = new DataInputStream(process.getInputStream())) {
+			byte[] payload = new byte[4096];
+			while (true) {
+				int length = in.readInt() - 5;
+				byte type = in.readByte();
+				int id = in.readInt();
+				if (length < 0 || length > FrameReader.MAX_FRAME_SIZE) {
+					throw new IOException("Invalid frame length: " + length);
+				}
+				if (payload.length < length) {
+					payload = new byte[length];
+				}
+				in.readFully(payload, 0, length);
+				ZygoteProcess child = children.get(id);
+				if (child == null) {
+					continue;
+				}
+				if (type == OUTPUT) {
+					child.output(payload, length);
+				} else if (type == EXIT) {
+					children.remove(id);
+					int code = (payload[0] & 0xff) << 24 | (payload[1] & 0xff) << 16 | (payload[2] & 0xff) << 8 |
+							(payload[3] & 0xff);
+					// exit code of the killed process is reported in the same way as by ProcessBuilder
+					child.exited(code < 0 ? 128 - code : code);
+				}
+			}
+		} catch (EOFException ex) {
+			log.log(Level.FINEST, "Python zygote " + command + " stopped");
+		} catch (IOException ex) {
+			if (isCurrent(process)) {
+				log.log(Level.WARNING, "Could not read output of python zygote " + command, ex);
+			}
+			process.destroy();
+		}
+		// children of the zygote which stopped will never report their exit codes
+		for (Integer id : children.keySet()) {
+			ZygoteProcess child = children.get(id);
+			if (child != null && child.zygote == process) {
+				children.remove(id);
+				child.exited(-1);
+			}
+		}
+	}
+
+	// Returns false if the zygote was stopped by stop().
+	private synchronized boolean isCurrent(Process process) {
+		return this.process == process;
+	}
+
+	// Execution of the script in the child of the zygote.
+	private class ZygoteProcess
+			extends Process {
+
+		private final int id;
+		private final Process zygote;
+		private final Output output = new Output();
+		private Integer exitCode = null;
+
+		private ZygoteProcess(int id) {
+			this.id = id;
+			this.zygote = ZygoteServer.this.process;
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			// stdin of the child is /dev/null
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					throw new IOException("Python script started by zygote does not read stdin");
+				}
+			};
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return output;
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			// stderr of the child is stderr of the zygote, which is inherited from this process
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public synchronized int waitFor() throws InterruptedException {
+			while (exitCode == null) {
+				wait();
+			}
+			return exitCode;
+		}
+
+		@Override
+		public synchronized boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while (exitCode == null) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			return true;
+		}
+
+		@Override
+		public synchronized int exitValue() {
+			if (exitCode == null) {
+				throw new IllegalThreadStateException("Python script is still running");
+			}
+			return exitCode;
+		}
+
+		@Override
+		public synchronized boolean isAlive() {
+			return exitCode == null;
+		}
+
+		@Override
+		public void destroy() {
+			if (isAlive()) {
+				kill(id, SIGTERM);
+			}
+		}
+
+		@Override
+		public Process destroyForcibly() {
+			if (isAlive()) {
+				kill(id, SIGKILL);
+			}
+			return this;
+		}
+
+		private void output(byte[] data, int length) {
+			output.append(data, length);
+		}
+
+		private void exited(int code) {
+			// output is complete before the exit code is received
+			output.complete();
+			synchronized (this) {
+				exitCode = code;
+				notifyAll();
+			}
+		}
+	}
+
+	// Output of the child buffered until it is read. Data received after the stream was closed is dropped.
+	private static class Output
+			extends InputStream {
+
+		private byte[] buffer = new byte[256];
+		private boolean closed = false;
+		private boolean complete = false;
+		private int head = 0;
+		private int tail = 0;
+
+		@Override
+		public synchronized int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			try {
+				while (head == tail && !complete && !closed) {
+					wait();
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Reading of python script output interrupted");
+			}
+			if (head == tail) {
+				return -1;
+			}
+			int count = Math.min(len, tail - head);
+			System.arraycopy(buffer, head, b, off, count);
+			head += count;
+			return count;
+		}
+
+		@Override
+		public synchronized int available() {
+			return tail - head;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+			buffer = null;
+			head = tail = 0;
+			notifyAll();
+		}
+
+		private synchronized void append(byte[] data, int length) {
+			if (closed) {
+				return;
+			}
+			if (tail + length > buffer.length) {
+				int size = tail - head;
+				byte[] target = size + length > buffer.length ? new byte[Math.max(buffer.length * 2, size + length)]
+															  : buffer;
+				System.arraycopy(buffer, head, target, 0, size);
+				buffer = target;
+				head = 0;
+				tail = size;
+			}
+			System.arraycopy(data, 0, buffer, tail, length);
+			tail += length;
+			notifyAll();
+		}
+
+		private synchronized void complete() {
+			complete = true;
+			notifyAll();
+		}
+	}
+}